@@ -0,0 +1,330 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured access log, one JSON object per line.
+ * Request threads never touch the file: the filter copies each finished request into a slot
+ * of a preallocated ring buffer, claimed with a single compare-and-set, and a background
+ * thread formats the records and writes them in batches. When the writer falls a full ring
+ * behind, new records are dropped and counted instead of making requests wait. An idle
+ * writer parks until a request publishes the next record.
+ * The file is rotated by size, keeping a fixed number of old files (access.log.1 is newest).
+ */
+public class AccessLog extends Filter {
+    // Compression stats of the request running on this thread, filled in by Metrics
+    private static final ThreadLocal<Pending> CURRENT = new ThreadLocal<>();
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    private final Record[] ring;
+    private final int mask;
+    // Next sequence a producer may claim
+    private final AtomicLong claimed = new AtomicLong();
+    // Next sequence the writer will read; slots before it are free for reuse
+    private volatile long consumed;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean running = true;
+    // Set by the writer before it parks; the next publish clears it and unparks the writer
+    private volatile boolean parked;
+
+    private OutputStream out;
+    private long fileBytes;
+
+    /**
+     * @param file Log file; missing parent directories are created
+     * @param capacity Records the ring buffer holds, rounded up to a power of two
+     * @param maxFileBytes Size at which the file is rotated
+     * @param maxFiles Rotated files kept besides the current one
+     */
+    public AccessLog(Path file, int capacity, long maxFileBytes, int maxFiles) throws IOException {
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(0, maxFiles);
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Record[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Record();
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        openFile();
+
+        writer = new Thread(this::drain, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long start = System.nanoTime();
+        Pending request = new Pending();
+        exchange.setStreams(new Metrics.CountingInput(exchange.getRequestBody(), request.bytesIn),
+                            new Metrics.CountingOutput(exchange.getResponseBody(), request.bytesOut));
+        Pending outer = CURRENT.get();
+        CURRENT.set(request);
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            CURRENT.set(outer);
+            InetSocketAddress remote = exchange.getRemoteAddress();
+            publish(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(),
+                exchange.getResponseCode(), System.nanoTime() - start, request,
+                remote != null && remote.getAddress() != null ? remote.getAddress().getHostAddress() : null);
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Asynchronous structured access log";
+    }
+
+    /**
+     * Adds a finished compression to the access log record of the current request, if any
+     */
+    static void recordCompression(long originalBytes, long compressedBytes, long nanos) {
+        Pending request = CURRENT.get();
+        if (request != null) {
+            request.compressIn += originalBytes;
+            request.compressOut += compressedBytes;
+            request.compressNanos += nanos;
+        }
+    }
+
+    private void publish(String method, String path, int status, long durationNanos,
+                         Pending request, String client) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed >= ring.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        Record slot = ring[(int) seq & mask];
+        slot.time = System.currentTimeMillis();
+        slot.method = method;
+        slot.path = path;
+        slot.status = status;
+        slot.bytesInCount = request.bytesIn.sum();
+        slot.bytesOutCount = request.bytesOut.sum();
+        slot.durationNanos = durationNanos;
+        slot.compressIn = request.compressIn;
+        slot.compressOut = request.compressOut;
+        slot.compressNanos = request.compressNanos;
+        slot.client = client;
+        // Volatile write: makes the fields above visible to the writer
+        slot.sequence = seq;
+        if (parked) {
+            parked = false;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void drain() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            long next = consumed;
+            Record slot = ring[(int) next & mask];
+            if (slot.sequence != next) {
+                // Caught up: end the batch, then wait for more records
+                flush();
+                if (!running) {
+                    return;
+                }
+                parked = true;
+                // Re-check after announcing the park, so a record published meanwhile is not missed
+                if (slot.sequence != next && running) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                continue;
+            }
+            line.setLength(0);
+            slot.format(line);
+            slot.method = null;
+            slot.path = null;
+            slot.client = null;
+            consumed = next + 1;
+            write(line);
+        }
+    }
+
+    private void write(StringBuilder line) {
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (out == null) {
+                openFile();
+            }
+            if (fileBytes > 0 && fileBytes + bytes.length > maxFileBytes) {
+                rotate();
+            }
+            out.write(bytes);
+            fileBytes += bytes.length;
+            written.increment();
+        } catch (IOException e) {
+            dropped.increment();
+            System.err.println("Access log write failed: " + e.getMessage());
+            closeFile();
+        }
+    }
+
+    private void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Access log flush failed: " + e.getMessage());
+                closeFile();
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        if (maxFiles == 0) {
+            Files.deleteIfExists(file);
+        } else {
+            Files.deleteIfExists(rotated(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                if (Files.exists(rotated(i))) {
+                    Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        openFile();
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private void openFile() throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(file.toFile(), true), 65536);
+        fileBytes = Files.size(file);
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Error closing access log: " + e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Writes out the records still in the ring and closes the file
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeFile();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Counters of a request in progress
+     */
+    private static class Pending {
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        long compressIn;
+        long compressOut;
+        long compressNanos;
+    }
+
+    /**
+     * A ring slot holding one finished request
+     */
+    private static class Record {
+        // Sequence of the record in this slot, -1 before first use
+        volatile long sequence = -1;
+        long time;
+        String method;
+        String path;
+        int status;
+        long bytesInCount;
+        long bytesOutCount;
+        long durationNanos;
+        long compressIn;
+        long compressOut;
+        long compressNanos;
+        String client;
+
+        void format(StringBuilder line) {
+            line.append("{\"time\":\"").append(Instant.ofEpochMilli(time)).append('"');
+            line.append(",\"method\":");
+            quote(line, method);
+            line.append(",\"path\":");
+            quote(line, path);
+            line.append(",\"status\":").append(status);
+            line.append(",\"bytes_in\":").append(bytesInCount);
+            line.append(",\"bytes_out\":").append(bytesOutCount);
+            line.append(",\"duration_ms\":").append(durationNanos / 1000 / 1000.0);
+            if (compressIn > 0 || compressNanos > 0) {
+                line.append(",\"compress_ms\":").append(compressNanos / 1000 / 1000.0);
+                line.append(",\"compress_in\":").append(compressIn);
+                line.append(",\"compress_out\":").append(compressOut);
+                if (compressIn > 0) {
+                    long ratio = Math.round((1.0 - (double) compressOut / compressIn) * 10000);
+                    line.append(",\"ratio\":").append(ratio / 100.0);
+                }
+            }
+            line.append(",\"client\":");
+            quote(line, client);
+            line.append("}\n");
+        }
+
+        private static void quote(StringBuilder line, String value) {
+            if (value == null) {
+                line.append("null");
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    line.append('\\').append(c);
+                } else if (c < 0x20) {
+                    line.append(String.format("\\u%04x", (int) c));
+                } else {
+                    line.append(c);
+                }
+            }
+            line.append('"');
+        }
+    }
+}
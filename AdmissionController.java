@@ -0,0 +1,210 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control for the web server.
+ * <ul>
+ *   <li>Bodies larger than the per-request limit (or the whole budget) are refused with 413.</li>
+ *   <li>A global budget of in-flight request bytes, charged from Content-Length before the
+ *       body is read, turns excess load into 503 responses with Retry-After.</li>
+ *   <li>A bounded queue in front of the request executor: once it is full, new exchanges are
+ *       handed to a small shedding pool that only answers 503. When that pool falls behind
+ *       too, the exchange is refused and the server closes the connection without a response.</li>
+ * </ul>
+ */
+public class AdmissionController extends Filter {
+    // Set while an exchange runs on the shedding pool
+    private static final ThreadLocal<Boolean> SHEDDING = ThreadLocal.withInitial(() -> false);
+    // Exchanges waiting for the shedding pool before further ones are refused outright
+    private static final int SHED_QUEUE_CAPACITY = 64;
+
+    private final long maxRequestBytes;
+    private final long budgetBytes;
+    private final long unknownLengthBytes;
+    private final int queueCapacity;
+    private final long retryAfterSeconds;
+
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejectedTooLarge = new LongAdder();
+    private final LongAdder rejectedOverBudget = new LongAdder();
+    private final LongAdder rejectedQueueFull = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+
+    private final ThreadPoolExecutor shedPool = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(SHED_QUEUE_CAPACITY), r -> {
+            Thread t = new Thread(r, "admission-shed");
+            t.setDaemon(true);
+            return t;
+        });
+
+    /**
+     * @param maxRequestBytes Largest request body accepted at all
+     * @param budgetBytes Total request bytes allowed in flight at once
+     * @param unknownLengthBytes Bytes charged for bodies without Content-Length (chunked uploads)
+     * @param queueCapacity Exchanges allowed to wait for a worker before shedding starts
+     * @param retryAfterSeconds Value of the Retry-After header on 503 responses
+     */
+    public AdmissionController(long maxRequestBytes, long budgetBytes, long unknownLengthBytes,
+                               int queueCapacity, long retryAfterSeconds) {
+        this.maxRequestBytes = maxRequestBytes;
+        this.budgetBytes = budgetBytes;
+        this.unknownLengthBytes = unknownLengthBytes;
+        this.queueCapacity = queueCapacity;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Puts the bounded queue in front of the given worker executor
+     */
+    public Executor wrap(Executor workers) {
+        return task -> {
+            if (queueDepth.incrementAndGet() > queueCapacity) {
+                queueDepth.decrementAndGet();
+                try {
+                    shedPool.execute(() -> {
+                        SHEDDING.set(true);
+                        try {
+                            task.run();
+                        } finally {
+                            SHEDDING.set(false);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Both engines close the connection of an exchange the executor refuses,
+                    // without running any filter
+                    refused.increment();
+                    throw e;
+                }
+                return;
+            }
+            queued.increment();
+            workers.execute(() -> {
+                queueDepth.decrementAndGet();
+                task.run();
+            });
+        };
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (SHEDDING.get()) {
+            rejectedQueueFull.increment();
+            reject(exchange, 503, "Server is busy, please retry later.");
+            return;
+        }
+
+        long charge = requestCharge(exchange);
+        if (charge > maxRequestBytes || charge > budgetBytes) {
+            rejectedTooLarge.increment();
+            reject(exchange, 413, "Upload is too large (limit " + Math.min(maxRequestBytes, budgetBytes) + " bytes).");
+            return;
+        }
+        if (!reserve(charge)) {
+            rejectedOverBudget.increment();
+            reject(exchange, 503, "Server is busy, please retry later.");
+            return;
+        }
+
+        admitted.increment();
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            inFlightBytes.addAndGet(-charge);
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Admission control (in-flight byte budget, bounded queue)";
+    }
+
+    // Bytes this request counts against the budget, decided before reading the body
+    private long requestCharge(HttpExchange exchange) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Math.max(0, Long.parseLong(contentLength.trim()));
+            } catch (NumberFormatException e) {
+                return unknownLengthBytes;
+            }
+        }
+        return exchange.getRequestHeaders().containsKey("Transfer-Encoding") ? unknownLengthBytes : 0;
+    }
+
+    private boolean reserve(long charge) {
+        if (charge == 0) {
+            return true;
+        }
+        while (true) {
+            long current = inFlightBytes.get();
+            if (current + charge > budgetBytes) {
+                return false;
+            }
+            if (inFlightBytes.compareAndSet(current, current + charge)) {
+                return true;
+            }
+        }
+    }
+
+    private void reject(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        // The body is not read, so the connection cannot be reused
+        exchange.getResponseHeaders().set("Connection", "close");
+        if (status == 503) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    public long getRejectedTooLarge() {
+        return rejectedTooLarge.sum();
+    }
+
+    public long getRejectedOverBudget() {
+        return rejectedOverBudget.sum();
+    }
+
+    public long getRejectedQueueFull() {
+        return rejectedQueueFull.sum();
+    }
+
+    /**
+     * @return exchanges closed unanswered because the shedding pool was backed up as well
+     */
+    public long getRefused() {
+        return refused.sum();
+    }
+}
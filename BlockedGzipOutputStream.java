@@ -0,0 +1,196 @@
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes blocked gzip in the BGZF layout: a series of independent gzip members, each holding
+ * at most 65280 input bytes and recording its own total size in a "BC" extra field.
+ * Standard gunzip and GZIPInputStream read it as an ordinary multi-member gzip file, while
+ * ParallelGunzip can find every member boundary from the headers alone and inflate the
+ * members concurrently. Members are compressed in parallel on a ForkJoinPool, and the stream
+ * ends with the customary empty member as an end-of-file marker.
+ * <p>
+ * Blocks have no shared dictionary, so the output is a little larger than plain gzip.
+ */
+public class BlockedGzipOutputStream extends OutputStream {
+    // Input per member; even stored (incompressible) data then fits the 64 KB member limit
+    public static final int BLOCK_SIZE = 65280;
+    static final int MAX_MEMBER_SIZE = 65536;
+    static final int HEADER_SIZE = 18;
+    static final int TRAILER_SIZE = 8;
+
+    // Empty member written last, byte for byte the BGZF end-of-file marker
+    private static final byte[] EOF_MARKER = {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+        0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    // One raw Deflater per level (-1 to 9) and pool thread
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[11]);
+
+    private final OutputStream out;
+    private final int level;
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+    private final ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private boolean closed;
+
+    /**
+     * Uses the default compression level and the common ForkJoinPool
+     */
+    public BlockedGzipOutputStream(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param out Stream receiving the blocked gzip data
+     * @param level Deflate level 0-9, or Deflater.DEFAULT_COMPRESSION
+     * @param pool Pool that compresses the members
+     */
+    public BlockedGzipOutputStream(OutputStream out, int level, ForkJoinPool pool) {
+        this.out = out;
+        this.level = level;
+        this.pool = pool;
+        this.maxInFlight = Math.max(2, pool.getParallelism() * 2);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        block[blockLength++] = (byte) b;
+        if (blockLength == BLOCK_SIZE) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == BLOCK_SIZE) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Compresses the remaining input, writes the end-of-file marker and closes the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (blockLength > 0) {
+                submit();
+            }
+            while (!inFlight.isEmpty()) {
+                writeMember(inFlight.removeFirst());
+            }
+            out.write(EOF_MARKER);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        byte[] input = block;
+        int length = blockLength;
+        inFlight.addLast(pool.submit(() -> member(input, length)));
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+
+        while (!inFlight.isEmpty() && (inFlight.peekFirst().isDone() || inFlight.size() >= maxInFlight)) {
+            writeMember(inFlight.removeFirst());
+        }
+    }
+
+    private void writeMember(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            out.write(task.join());
+        } catch (RuntimeException e) {
+            throw new IOException("Parallel compression failed", e);
+        }
+    }
+
+    // Builds one complete gzip member: BGZF header, raw deflate data, CRC32 and size
+    private byte[] member(byte[] input, int length) {
+        byte[] member = new byte[MAX_MEMBER_SIZE];
+        int limit = MAX_MEMBER_SIZE - HEADER_SIZE - TRAILER_SIZE;
+        int dataLength = deflate(level, input, length, member, limit);
+        if (dataLength < 0) {
+            // Did not shrink enough to fit; stored blocks always do
+            dataLength = deflate(Deflater.NO_COMPRESSION, input, length, member, limit);
+        }
+        int size = HEADER_SIZE + dataLength + TRAILER_SIZE;
+
+        member[0] = 0x1f;
+        member[1] = (byte) 0x8b;
+        member[2] = Deflater.DEFLATED;
+        member[3] = 4;                  // FLG.FEXTRA
+        member[9] = (byte) 0xff;        // OS unknown
+        member[10] = 6;                 // XLEN
+        member[12] = 'B';
+        member[13] = 'C';
+        member[14] = 2;                 // SLEN
+        putShort(member, 16, size - 1); // BSIZE: total member size minus one
+
+        CRC32 crc = new CRC32();
+        crc.update(input, 0, length);
+        putInt(member, HEADER_SIZE + dataLength, (int) crc.getValue());
+        putInt(member, HEADER_SIZE + dataLength + 4, length);
+        return Arrays.copyOf(member, size);
+    }
+
+    // Deflates into member after the header, returning the length or -1 if it does not fit
+    private static int deflate(int level, byte[] input, int length, byte[] member, int limit) {
+        Deflater[] deflaters = DEFLATERS.get();
+        int index = Math.max(-1, Math.min(level, 9)) + 1;
+        if (deflaters[index] == null) {
+            deflaters[index] = new Deflater(index - 1, true);
+        }
+        Deflater deflater = deflaters[index];
+        try {
+            deflater.setInput(input, 0, length);
+            deflater.finish();
+            int dataLength = 0;
+            while (!deflater.finished()) {
+                if (dataLength == limit) {
+                    return -1;
+                }
+                dataLength += deflater.deflate(member, HEADER_SIZE + dataLength, limit - dataLength);
+            }
+            return dataLength;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static void putShort(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] b, int off, int value) {
+        putShort(b, off, value);
+        putShort(b, off + 2, value >>> 16);
+    }
+}
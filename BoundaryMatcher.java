@@ -0,0 +1,57 @@
+import java.util.Arrays;
+
+/**
+ * Precomputed Boyer-Moore-Horspool matcher for multipart boundaries.
+ * Multipart delimiters are long and rarely share bytes with the payload,
+ * so most probes skip ahead by the full pattern length.
+ */
+public class BoundaryMatcher {
+    private final byte[] pattern;
+    private final int[] shift = new int[256];
+
+    public BoundaryMatcher(byte[] pattern) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("Pattern must not be empty");
+        }
+        this.pattern = pattern.clone();
+
+        // Bad-character table: distance from the last occurrence of each byte to the pattern end
+        int last = pattern.length - 1;
+        Arrays.fill(shift, pattern.length);
+        for (int i = 0; i < last; i++) {
+            shift[pattern[i] & 0xFF] = last - i;
+        }
+    }
+
+    public int length() {
+        return pattern.length;
+    }
+
+    /**
+     * Finds the first occurrence of the pattern in array[start, end)
+     *
+     * @param array Data to search
+     * @param start First index to consider
+     * @param end Index one past the last byte to consider
+     * @return index of the match, or -1 if the pattern does not occur
+     */
+    public int indexOf(byte[] array, int start, int end) {
+        int last = pattern.length - 1;
+        byte lastByte = pattern[last];
+        int i = start;
+        while (i <= end - pattern.length) {
+            byte b = array[i + last];
+            if (b == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && array[i + j] == pattern[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += shift[b & 0xFF];
+        }
+        return -1;
+    }
+}
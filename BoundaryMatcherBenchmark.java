@@ -0,0 +1,73 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Microbenchmark comparing the naive byte-by-byte boundary search with BoundaryMatcher.
+ * Usage: java BoundaryMatcherBenchmark [sizeMB] [iterations]
+ */
+public class BoundaryMatcherBenchmark {
+    public static void main(String[] args) {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // Typical browser-generated boundary, placed only at the very end of the body
+        byte[] pattern = "\r\n------WebKitFormBoundary7MA4YWxkTrZu0gW".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] body = new byte[sizeMB * 1024 * 1024];
+        new Random(42).nextBytes(body);
+        System.arraycopy(pattern, 0, body, body.length - pattern.length, pattern.length);
+
+        BoundaryMatcher matcher = new BoundaryMatcher(pattern);
+
+        System.out.println("========================================");
+        System.out.println("  Boundary Search Benchmark");
+        System.out.println("  Body: " + sizeMB + " MB, iterations: " + iterations);
+        System.out.println("========================================");
+
+        // Warm up both paths so the JIT has compiled them before timing
+        for (int i = 0; i < 3; i++) {
+            naiveIndexOf(body, pattern, 0, body.length);
+            matcher.indexOf(body, 0, body.length);
+        }
+
+        long naiveNanos = 0;
+        long matcherNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            int naivePos = naiveIndexOf(body, pattern, 0, body.length);
+            naiveNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int matcherPos = matcher.indexOf(body, 0, body.length);
+            matcherNanos += System.nanoTime() - start;
+
+            if (naivePos != matcherPos) {
+                throw new IllegalStateException("Mismatch: " + naivePos + " vs " + matcherPos);
+            }
+        }
+
+        double naiveMBs = throughput(sizeMB, iterations, naiveNanos);
+        double matcherMBs = throughput(sizeMB, iterations, matcherNanos);
+        System.out.println("Naive indexOf:   " + String.format("%.1f", naiveMBs) + " MB/s");
+        System.out.println("BoundaryMatcher: " + String.format("%.1f", matcherMBs) + " MB/s");
+        System.out.println("Speedup:         " + String.format("%.2f", matcherMBs / naiveMBs) + "x");
+    }
+
+    private static double throughput(int sizeMB, int iterations, long nanos) {
+        return (double) sizeMB * iterations / (nanos / 1_000_000_000.0);
+    }
+
+    // The original nested-loop search previously used by JavaWebServer.parseMultipart
+    private static int naiveIndexOf(byte[] array, byte[] pattern, int start, int end) {
+        for (int i = start; i <= end - pattern.length; i++) {
+            boolean match = true;
+            for (int j = 0; j < pattern.length; j++) {
+                if (array[i + j] != pattern[j]) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * A single byte range from an HTTP Range header (RFC 9110 section 14)
+ */
+public class ByteRange {
+    /**
+     * Returned by parse() when the header is valid but no range overlaps the content
+     */
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private final long first;
+    private final long last;
+
+    private ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses a Range header against a representation of the given size.
+     * Only a single range is honored; multi-range and malformed headers are ignored,
+     * which the RFC allows and which means the full content is sent instead.
+     *
+     * @param header Value of the Range header, may be null
+     * @param size Size of the full content in bytes
+     * @return the range to send, UNSATISFIABLE, or null to send the full content
+     */
+    public static ByteRange parse(String header, long size) {
+        if (header == null || !header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        if (spec.isEmpty() || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String start = spec.substring(0, dash).trim();
+            String end = spec.substring(dash + 1).trim();
+            if (start.isEmpty()) {
+                // Suffix range: the last N bytes
+                if (end.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(end);
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, size - suffix), size - 1);
+            }
+            long first = Long.parseLong(start);
+            long last = end.isEmpty() ? Long.MAX_VALUE : Long.parseLong(end);
+            if (first < 0 || last < first) {
+                return null;
+            }
+            if (first >= size) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(first, Math.min(last, size - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * @return the Content-Range value for this range
+     */
+    public String toContentRange(long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+}
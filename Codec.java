@@ -0,0 +1,228 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A compression format that can be plugged into FileCompressor, the web API and the desktop app.
+ * Implementations only supply the two wrapping streams; the stream, buffer and channel variants
+ * are built on top of them and may be overridden where a format can do better. Codecs are
+ * found through ServiceLoader (see Codecs), so a new format is a class plus one line in
+ * META-INF/services/Codec.
+ */
+public interface Codec {
+    /**
+     * @return the lower-case name used to select this codec, e.g. "gzip"
+     */
+    String getName();
+
+    /**
+     * @return the file extension including the dot, e.g. ".gz"
+     */
+    String getExtension();
+
+    /**
+     * @return the MIME type of the compressed data
+     */
+    String getContentType();
+
+    /**
+     * Tells whether data starts with this format's signature
+     *
+     * @param header First bytes of the data
+     * @param length Number of valid bytes in header (at most 4 are passed)
+     */
+    boolean matches(byte[] header, int length);
+
+    /**
+     * @return true if the compressed data contains the filename passed to compressor, so that
+     *     the same bytes under another name compress differently
+     */
+    default boolean storesFilename() {
+        return false;
+    }
+
+    /**
+     * @return true if this codec takes a deflate level and strategy (see configure)
+     */
+    default boolean hasSettings() {
+        return false;
+    }
+
+    /**
+     * Returns this codec with the given level and strategy. Codecs without settings return
+     * themselves, and automatic settings must be resolved first (see CompressionTuner).
+     *
+     * @param settings Level and strategy to compress with
+     */
+    default Codec configure(CompressionSettings settings) {
+        return this;
+    }
+
+    /**
+     * Wraps a stream so that everything written to it is compressed. Closing the returned stream
+     * finishes the compressed data and closes out.
+     *
+     * @param out Stream receiving the compressed data
+     * @param filename Name of the original file, kept by formats that store names; may be null
+     */
+    OutputStream compressor(OutputStream out, String filename) throws IOException;
+
+    /**
+     * Like compressor, for data already judged incompressible (see Compressibility): the data
+     * is wrapped in the format without being compressed. By default this is level 0; zip
+     * overrides it to write a STORED entry when size and CRC are known.
+     *
+     * @param out Stream receiving the compressed data
+     * @param filename Name of the original file; may be null
+     * @param size Exact number of bytes that will be written, or -1 if unknown
+     * @param crc CRC-32 of those bytes, or -1 if unknown or not needed (see needsChecksumToStore)
+     */
+    default OutputStream storingCompressor(OutputStream out, String filename, long size, long crc)
+            throws IOException {
+        return configure(CompressionSettings.STORE).compressor(out, filename);
+    }
+
+    /**
+     * @return true if storingCompressor needs the CRC-32 of the data up front, which costs an
+     *     extra pass over it
+     */
+    default boolean needsChecksumToStore() {
+        return false;
+    }
+
+    /**
+     * Wraps a stream of compressed data so that reading it yields the original bytes
+     *
+     * @param in Stream of compressed data
+     */
+    InputStream decompressor(InputStream in) throws IOException;
+
+    /**
+     * Compresses a stream into another
+     *
+     * @param source Stream to read uncompressed data from (not closed)
+     * @param dest Stream to write the compressed data to (not closed)
+     * @return the number of uncompressed bytes read
+     */
+    default long compress(InputStream source, OutputStream dest) throws IOException {
+        try (OutputStream out = compressor(new UnclosedOutputStream(dest), null)) {
+            return source.transferTo(out);
+        }
+    }
+
+    /**
+     * Decompresses a stream into another
+     *
+     * @param source Stream to read compressed data from (not closed)
+     * @param dest Stream to write the decompressed data to (not closed)
+     * @return the number of decompressed bytes written
+     */
+    default long decompress(InputStream source, OutputStream dest) throws IOException {
+        try (InputStream in = decompressor(new UnclosedInputStream(source))) {
+            return in.transferTo(dest);
+        }
+    }
+
+    /**
+     * Compresses the remaining bytes of a buffer
+     *
+     * @return a heap buffer with the compressed data, ready for reading
+     */
+    default ByteBuffer compress(ByteBuffer source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(512, source.remaining() / 2));
+        try (OutputStream compressor = compressor(out, null)) {
+            writeBuffer(source, compressor);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Decompresses the remaining bytes of a buffer
+     *
+     * @return a heap buffer with the decompressed data, ready for reading
+     */
+    default ByteBuffer decompress(ByteBuffer source) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(source.remaining());
+        writeBuffer(source, compressed);
+        try (InputStream in = decompressor(new ByteArrayInputStream(compressed.toByteArray()))) {
+            return ByteBuffer.wrap(in.readAllBytes());
+        }
+    }
+
+    /**
+     * Compresses everything readable from one channel into another
+     *
+     * @param source Channel to read uncompressed data from (not closed)
+     * @param dest Channel to write the compressed data to (not closed)
+     * @return the number of uncompressed bytes read
+     */
+    default long compress(ReadableByteChannel source, WritableByteChannel dest) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(dest), 65536);
+        long n = compress(new UnclosedInputStream(Channels.newInputStream(source)), out);
+        out.flush();
+        return n;
+    }
+
+    /**
+     * Decompresses everything readable from one channel into another
+     *
+     * @param source Channel to read compressed data from (not closed)
+     * @param dest Channel to write the decompressed data to (not closed)
+     * @return the number of decompressed bytes written
+     */
+    default long decompress(ReadableByteChannel source, WritableByteChannel dest) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(dest), 65536);
+        long n = decompress(new BufferedInputStream(Channels.newInputStream(source), 65536), out);
+        out.flush();
+        return n;
+    }
+
+    private static void writeBuffer(ByteBuffer source, OutputStream out) throws IOException {
+        if (source.hasArray()) {
+            out.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+            source.position(source.limit());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(source.remaining(), 65536)];
+        while (source.hasRemaining()) {
+            int n = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Output stream whose close() only flushes, so a codec can finish its format without
+     * closing a stream that belongs to the caller
+     */
+    class UnclosedOutputStream extends FilterOutputStream {
+        public UnclosedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Input stream whose close() does nothing, for the same reason
+     */
+    class UnclosedInputStream extends FilterInputStream {
+        public UnclosedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
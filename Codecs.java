@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the available codecs, discovered once with ServiceLoader from
+ * META-INF/services/Codec. The built-in gzip, zip, lz4 and bgzf codecs are registered even
+ * when that file is not on the class path, and a provider with the same name replaces a
+ * built-in one.
+ */
+public class Codecs {
+    private static final Map<String, Codec> CODECS = load();
+
+    private Codecs() {
+    }
+
+    private static Map<String, Codec> load() {
+        Map<String, Codec> codecs = new LinkedHashMap<>();
+        for (Codec codec : List.of(new GzipCodec(), new ZipCodec(), new Lz4Codec(), new BgzfCodec())) {
+            codecs.put(codec.getName(), codec);
+        }
+        try {
+            for (Codec codec : ServiceLoader.load(Codec.class)) {
+                codecs.put(codec.getName().toLowerCase(Locale.ROOT), codec);
+            }
+        } catch (ServiceConfigurationError e) {
+            System.err.println("Could not load codec providers: " + e.getMessage());
+        }
+        return Collections.unmodifiableMap(codecs);
+    }
+
+    /**
+     * @return the default codec, gzip
+     */
+    public static Codec gzip() {
+        return CODECS.get("gzip");
+    }
+
+    /**
+     * @return every registered codec, built-in ones first
+     */
+    public static Collection<Codec> all() {
+        return CODECS.values();
+    }
+
+    /**
+     * @return the codec names, e.g. for a format selector
+     */
+    public static List<String> names() {
+        return new ArrayList<>(CODECS.keySet());
+    }
+
+    /**
+     * Looks up a codec by name, ignoring case
+     *
+     * @return the codec, or null if there is none of that name
+     */
+    public static Codec forName(String name) {
+        return name == null ? null : CODECS.get(name.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Finds the codec whose extension a filename ends with
+     *
+     * @return the codec, or null if the extension is not known
+     */
+    public static Codec forFilename(String filename) {
+        String lower = filename.toLowerCase(Locale.ROOT);
+        for (Codec codec : CODECS.values()) {
+            if (lower.endsWith(codec.getExtension())) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Identifies compressed data by its signature
+     *
+     * @param header First bytes of the data
+     * @param length Number of valid bytes in header
+     * @return the matching codec, or null if no codec recognises the data
+     */
+    public static Codec detect(byte[] header, int length) {
+        for (Codec codec : CODECS.values()) {
+            if (codec.matches(header, length)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Cheap pre-pass that spots input deflate cannot shrink, so it can be stored instead.
+ * Data is judged incompressible when its magic bytes name an already-compressed format
+ * (JPEG, PNG, MP4, ZIP, gzip, ...) and its sample is not plainly low-entropy, or when the
+ * sampled order-0 byte entropy is at least the configured threshold.
+ */
+public class Compressibility {
+    // Below this, a recognised format still holds enough uncompressed data to be worth deflating
+    private static final double KNOWN_FORMAT_MIN_ENTROPY = 6.0;
+
+    private static final Signature[] SIGNATURES = {
+        new Signature("jpeg", 0, 0xFF, 0xD8, 0xFF),
+        new Signature("png", 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A),
+        new Signature("gif", 0, 'G', 'I', 'F', '8'),
+        new Signature("webp", 8, 'W', 'E', 'B', 'P'),
+        new Signature("mp4", 4, 'f', 't', 'y', 'p'),
+        new Signature("matroska", 0, 0x1A, 0x45, 0xDF, 0xA3),
+        new Signature("mp3", 0, 'I', 'D', '3'),
+        new Signature("ogg", 0, 'O', 'g', 'g', 'S'),
+        new Signature("flac", 0, 'f', 'L', 'a', 'C'),
+        new Signature("zip", 0, 'P', 'K', 3, 4),
+        new Signature("gzip", 0, 0x1F, 0x8B),
+        new Signature("bzip2", 0, 'B', 'Z', 'h'),
+        new Signature("xz", 0, 0xFD, '7', 'z', 'X', 'Z', 0x00),
+        new Signature("7z", 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C),
+        new Signature("zstd", 0, 0x28, 0xB5, 0x2F, 0xFD),
+        new Signature("lz4", 0, 0x04, 0x22, 0x4D, 0x18),
+        new Signature("rar", 0, 'R', 'a', 'r', '!', 0x1A, 0x07)
+    };
+
+    private Compressibility() {
+    }
+
+    /**
+     * Judges data from a sample of it, normally its first bytes
+     *
+     * @param sample Sample, starting at the beginning of the data
+     * @param length Number of sample bytes
+     */
+    public static Estimate analyze(byte[] sample, int length) {
+        return new Estimate(detectFormat(sample, length), entropy(sample, 0, length), length);
+    }
+
+    /**
+     * Judges a file from slices at its start, middle and end, so that a compressible header
+     * or trailer does not decide for the whole file
+     *
+     * @param file File to sample
+     * @param sampleBytes Total bytes to read
+     */
+    public static Estimate analyze(Path file, int sampleBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= sampleBytes) {
+                byte[] sample = new byte[(int) size];
+                int length = read(channel, 0, sample, 0, sample.length);
+                return analyze(sample, length);
+            }
+            byte[] sample = new byte[sampleBytes];
+            int slice = sampleBytes / 3;
+            int length = read(channel, 0, sample, 0, slice);
+            length += read(channel, (size - slice) / 2, sample, length, slice);
+            length += read(channel, size - (sampleBytes - length), sample, length, sampleBytes - length);
+            return analyze(sample, length);
+        }
+    }
+
+    private static int read(FileChannel channel, long position, byte[] into, int offset, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(into, offset, length);
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position() - offset);
+            if (n < 0) {
+                break;
+            }
+        }
+        return buffer.position() - offset;
+    }
+
+    /**
+     * @return the name of the compressed format the data starts with, or null
+     */
+    static String detectFormat(byte[] data, int length) {
+        for (Signature signature : SIGNATURES) {
+            if (signature.matches(data, length)) {
+                return signature.name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Order-0 Shannon entropy in bits per byte, with the Miller-Madow correction for the
+     * underestimate that small samples give
+     */
+    static double entropy(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int[] counts = new int[256];
+        for (int i = offset; i < offset + length; i++) {
+            counts[data[i] & 0xff]++;
+        }
+        double bits = 0;
+        int symbols = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                bits -= p * Math.log(p);
+                symbols++;
+            }
+        }
+        bits += (symbols - 1) / (2.0 * length);
+        return Math.min(8, bits / Math.log(2));
+    }
+
+    /**
+     * Outcome of the pre-pass
+     */
+    public static class Estimate {
+        private final String format;
+        private final double entropy;
+        private final int sampleBytes;
+
+        Estimate(String format, double entropy, int sampleBytes) {
+            this.format = format;
+            this.entropy = entropy;
+            this.sampleBytes = sampleBytes;
+        }
+
+        /**
+         * @return the recognised compressed format, e.g. "jpeg", or null
+         */
+        public String getFormat() {
+            return format;
+        }
+
+        /**
+         * @return sampled byte entropy, 0 to 8 bits per byte
+         */
+        public double getEntropy() {
+            return entropy;
+        }
+
+        public int getSampleBytes() {
+            return sampleBytes;
+        }
+
+        /**
+         * @return true if deflating the data would cost CPU for next to no gain
+         */
+        public boolean isIncompressible() {
+            if (sampleBytes == 0) {
+                return false;
+            }
+            if (format != null && entropy >= KNOWN_FORMAT_MIN_ENTROPY) {
+                return true;
+            }
+            return entropy >= ServerConfig.STORE_ENTROPY_BITS;
+        }
+
+        /**
+         * @return e.g. "jpeg, 7.98 bits/byte"
+         */
+        @Override
+        public String toString() {
+            String bits = String.format(Locale.ROOT, "%.2f bits/byte", entropy);
+            return format != null ? format + ", " + bits : bits;
+        }
+    }
+
+    /**
+     * Magic bytes of a format at a fixed offset
+     */
+    private static class Signature {
+        final String name;
+        final int offset;
+        final byte[] magic;
+
+        Signature(String name, int offset, int... magic) {
+            this.name = name;
+            this.offset = offset;
+            this.magic = new byte[magic.length];
+            for (int i = 0; i < magic.length; i++) {
+                this.magic[i] = (byte) magic[i];
+            }
+        }
+
+        boolean matches(byte[] data, int length) {
+            if (length < offset + magic.length) {
+                return false;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (data[offset + i] != magic[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
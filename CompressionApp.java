@@ -12,6 +12,7 @@ public class CompressionApp extends JFrame {
     private JTextField sourceField;
     private JTextField destField;
     private JComboBox<String> formatCombo;
+    private JCheckBox parallelBox;
     private JButton compressButton;
     private JTextArea logArea;
     
@@ -69,9 +70,22 @@ public class CompressionApp extends JFrame {
         
         gbc.gridx = 1;
         gbc.fill = GridBagConstraints.HORIZONTAL;
-        formatCombo = new JComboBox<>(new String[]{"GZIP", "ZIP"});
+        // One entry per registered codec, e.g. GZIP, ZIP, LZ4
+        formatCombo = new JComboBox<>();
+        for (String name : Codecs.names()) {
+            formatCombo.addItem(name.toUpperCase());
+        }
         panel.add(formatCombo, gbc);
         
+        // GZIP can deflate blocks of the file on all cores (ParallelGzipOutputStream)
+        gbc.gridx = 2;
+        gbc.fill = GridBagConstraints.NONE;
+        parallelBox = new JCheckBox("All cores");
+        parallelBox.setToolTipText("Compress GZIP in parallel; the output is ordinary gzip");
+        formatCombo.addActionListener(e -> parallelBox.setEnabled("GZIP".equals(formatCombo.getSelectedItem())));
+        parallelBox.setEnabled("GZIP".equals(formatCombo.getSelectedItem()));
+        panel.add(parallelBox, gbc);
+        
         // Compress button
         gbc.gridx = 1;
         gbc.gridy = 3;
@@ -113,10 +127,13 @@ public class CompressionApp extends JFrame {
         logArea.append("Format: " + format + "\n");
         
         CompressionResult result;
-        if ("GZIP".equals(format)) {
+        if ("GZIP".equals(format) && parallelBox.isSelected()) {
+            logArea.append("Parallel: " + Runtime.getRuntime().availableProcessors() + " cores\n");
+            result = FileCompressor.compressFileParallel(source, dest);
+        } else if ("GZIP".equals(format)) {
             result = FileCompressor.compressFile(source, dest);
         } else {
-            result = FileCompressor.compressToZip(source, dest);
+            result = FileCompressor.compressFile(source, dest, Codecs.forName(format));
         }
         
         if (result.isSuccess()) {
@@ -0,0 +1,137 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.*;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes eligible responses with gzip or deflate when the client advertises support.
+ * Encoded responses switch to chunked transfer since the final length is unknown.
+ * Responses that already carry a Content-Encoding, are too small, or have a
+ * MIME type outside the configured list (e.g. application/gzip downloads) pass through.
+ */
+public class CompressionFilter extends Filter {
+    private final long minSize;
+    private final Set<String> mimeTypes;
+
+    /**
+     * @param minSize Smallest fixed-length body worth encoding
+     * @param mimeTypes Comma-separated list of MIME types to encode
+     */
+    public CompressionFilter(long minSize, String mimeTypes) {
+        this.minSize = minSize;
+        this.mimeTypes = Arrays.stream(mimeTypes.split(","))
+            .map(type -> type.trim().toLowerCase(Locale.ROOT))
+            .filter(type -> !type.isEmpty())
+            .collect(Collectors.toSet());
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        String coding = null;
+        if (StaticPage.acceptsEncoding(acceptEncoding, "gzip")) {
+            coding = "gzip";
+        } else if (StaticPage.acceptsEncoding(acceptEncoding, "deflate")) {
+            coding = "deflate";
+        }
+
+        if (coding == null || "HEAD".equals(exchange.getRequestMethod())) {
+            chain.doFilter(exchange);
+            return;
+        }
+        chain.doFilter(new EncodingExchange(exchange, coding));
+    }
+
+    @Override
+    public String description() {
+        return "Content-Encoding negotiation (gzip, deflate)";
+    }
+
+    private boolean isEligible(Headers headers, int rCode, long responseLength) {
+        if (responseLength < 0 || rCode < 200 || rCode == 204 || rCode == 304) {
+            return false;
+        }
+        if (responseLength > 0 && responseLength < minSize) {
+            return false;
+        }
+        if (headers.containsKey("Content-Encoding")) {
+            return false;
+        }
+        String contentType = headers.getFirst("Content-Type");
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mimeType = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType)
+            .trim().toLowerCase(Locale.ROOT);
+        return mimeTypes.contains(mimeType);
+    }
+
+    /**
+     * Exchange that decides at sendResponseHeaders time whether to encode the body
+     */
+    private class EncodingExchange extends DelegatingExchange {
+        private final String coding;
+        private OutputStream encodedBody;
+
+        EncodingExchange(HttpExchange delegate, String coding) {
+            super(delegate);
+            this.coding = coding;
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            Headers headers = getResponseHeaders();
+            if (!headers.containsKey("Vary")) {
+                headers.set("Vary", "Accept-Encoding");
+            }
+            if (!isEligible(headers, rCode, responseLength)) {
+                super.sendResponseHeaders(rCode, responseLength);
+                return;
+            }
+
+            headers.set("Content-Encoding", coding);
+            headers.remove("Content-Length");
+            super.sendResponseHeaders(rCode, 0);
+
+            OutputStream raw = delegate.getResponseBody();
+            encodedBody = "gzip".equals(coding)
+                ? new GZIPOutputStream(raw, 8192)
+                : new DeflaterOutputStream(raw, new Deflater(Deflater.DEFAULT_COMPRESSION), 8192, false) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            def.end();
+                        }
+                    }
+                };
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return encodedBody != null ? encodedBody : super.getResponseBody();
+        }
+
+        @Override
+        public void close() {
+            if (encodedBody != null) {
+                try {
+                    // Writes the gzip/deflate trailer before the exchange is closed
+                    encodedBody.close();
+                } catch (IOException e) {
+                    System.err.println("Error finishing encoded response: " + e.getMessage());
+                }
+            }
+            super.close();
+        }
+    }
+}
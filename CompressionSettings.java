@@ -0,0 +1,116 @@
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Deflate level and strategy for a compression, or "auto" to let CompressionTuner choose both
+ * from a sample of the input. Codecs without levels (lz4) ignore the settings.
+ */
+public class CompressionSettings {
+    public static final CompressionSettings DEFAULT =
+        new CompressionSettings(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, false);
+    public static final CompressionSettings AUTO =
+        new CompressionSettings(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, true);
+    // Level 0: the format's framing around uncompressed data
+    public static final CompressionSettings STORE =
+        new CompressionSettings(Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY, false);
+
+    private static final String[] STRATEGY_NAMES = {"DEFAULT", "FILTERED", "HUFFMAN_ONLY"};
+
+    private final int level;
+    private final int strategy;
+    private final boolean auto;
+
+    private CompressionSettings(int level, int strategy, boolean auto) {
+        this.level = level;
+        this.strategy = strategy;
+        this.auto = auto;
+    }
+
+    /**
+     * @param level Deflate level 0-9, or Deflater.DEFAULT_COMPRESSION
+     * @param strategy Deflater.DEFAULT_STRATEGY, FILTERED or HUFFMAN_ONLY
+     * @throws IllegalArgumentException if either value is out of range
+     */
+    public static CompressionSettings of(int level, int strategy) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be 0-9, got " + level);
+        }
+        if (strategy < Deflater.DEFAULT_STRATEGY || strategy > Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Unknown compression strategy " + strategy);
+        }
+        return new CompressionSettings(level, strategy, false);
+    }
+
+    /**
+     * Parses request or configuration values
+     *
+     * @param level "0" to "9", "auto", or null/empty for the default level
+     * @param strategy "default", "filtered", "huffman_only" (any case), or null/empty for the default
+     * @return the settings; with level "auto" the strategy is chosen automatically as well
+     * @throws IllegalArgumentException if a value is not recognised
+     */
+    public static CompressionSettings parse(String level, String strategy) {
+        if (level != null && level.trim().equalsIgnoreCase("auto")) {
+            return AUTO;
+        }
+        int parsedLevel = Deflater.DEFAULT_COMPRESSION;
+        if (level != null && !level.isBlank()) {
+            try {
+                parsedLevel = Integer.parseInt(level.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Compression level must be 0-9 or auto, got " + level);
+            }
+            if (parsedLevel < 0) {
+                throw new IllegalArgumentException("Compression level must be 0-9 or auto, got " + level);
+            }
+        }
+        int parsedStrategy = Deflater.DEFAULT_STRATEGY;
+        if (strategy != null && !strategy.isBlank()) {
+            parsedStrategy = strategyOf(strategy.trim().toUpperCase(Locale.ROOT));
+        }
+        return of(parsedLevel, parsedStrategy);
+    }
+
+    private static int strategyOf(String name) {
+        for (int i = 0; i < STRATEGY_NAMES.length; i++) {
+            if (STRATEGY_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Compression strategy must be DEFAULT, FILTERED or HUFFMAN_ONLY, got "
+            + name);
+    }
+
+    /**
+     * @return the deflate level, or Deflater.DEFAULT_COMPRESSION
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the deflate strategy
+     */
+    public int getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return true if level and strategy are to be chosen from a sample of the input
+     */
+    public boolean isAuto() {
+        return auto;
+    }
+
+    /**
+     * @return e.g. "level=6,strategy=DEFAULT" or "auto", also usable as part of a cache key
+     */
+    @Override
+    public String toString() {
+        if (auto) {
+            return "auto";
+        }
+        return "level=" + (level == Deflater.DEFAULT_COMPRESSION ? "default" : String.valueOf(level))
+            + ",strategy=" + STRATEGY_NAMES[strategy];
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Chooses deflate settings for an input by compressing a sample of it with each candidate
+ * level and strategy. Among the candidates whose throughput on the sample reaches the target,
+ * the one with the smallest output wins, but a faster candidate within 1% of that size is
+ * preferred; if none is fast enough, the fastest candidate is used.
+ */
+public class CompressionTuner {
+    private static final CompressionSettings[] CANDIDATES = {
+        CompressionSettings.of(1, Deflater.DEFAULT_STRATEGY),
+        CompressionSettings.of(3, Deflater.DEFAULT_STRATEGY),
+        CompressionSettings.of(6, Deflater.DEFAULT_STRATEGY),
+        CompressionSettings.of(9, Deflater.DEFAULT_STRATEGY),
+        CompressionSettings.of(6, Deflater.FILTERED),
+        CompressionSettings.of(1, Deflater.HUFFMAN_ONLY)
+    };
+    // Below this, timings are mostly noise and the choice hardly matters
+    private static final int MIN_SAMPLE_BYTES = 4096;
+    private static final double SIZE_TOLERANCE = 1.01;
+
+    private final int sampleBytes;
+    private final double targetBytesPerSecond;
+
+    /**
+     * @param sampleBytes Size of the input sample compressed with every candidate
+     * @param targetMBps Minimum acceptable compression throughput in MB/s
+     */
+    public CompressionTuner(int sampleBytes, double targetMBps) {
+        this.sampleBytes = sampleBytes;
+        this.targetBytesPerSecond = targetMBps * 1024 * 1024;
+    }
+
+    /**
+     * @return the sample size callers should read from the input for choose
+     */
+    public int getSampleBytes() {
+        return sampleBytes;
+    }
+
+    /**
+     * Chooses settings by compressing the sample with each candidate
+     *
+     * @param codec Codec that will compress the input
+     * @param sample Start of the input
+     * @param length Number of sample bytes
+     * @return the chosen settings; the defaults for codecs without settings or tiny samples
+     */
+    public CompressionSettings choose(Codec codec, byte[] sample, int length) throws IOException {
+        if (!codec.hasSettings() || length < MIN_SAMPLE_BYTES) {
+            return CompressionSettings.DEFAULT;
+        }
+
+        int[] sizes = new int[CANDIDATES.length];
+        double[] throughputs = new double[CANDIDATES.length];
+        int smallest = -1;
+        int fastest = 0;
+        for (int i = 0; i < CANDIDATES.length; i++) {
+            Codec candidate = codec.configure(CANDIDATES[i]);
+            long start = System.nanoTime();
+            sizes[i] = candidate.compress(ByteBuffer.wrap(sample, 0, length)).remaining();
+            throughputs[i] = length * 1e9 / Math.max(1, System.nanoTime() - start);
+
+            if (throughputs[i] > throughputs[fastest]) {
+                fastest = i;
+            }
+            if (throughputs[i] >= targetBytesPerSecond && (smallest < 0 || sizes[i] < sizes[smallest])) {
+                smallest = i;
+            }
+        }
+        if (smallest < 0) {
+            return CANDIDATES[fastest];
+        }
+
+        int chosen = smallest;
+        for (int i = 0; i < CANDIDATES.length; i++) {
+            if (sizes[i] <= sizes[smallest] * SIZE_TOLERANCE && throughputs[i] > throughputs[chosen]) {
+                chosen = i;
+            }
+        }
+        return CANDIDATES[chosen];
+    }
+}
@@ -0,0 +1,194 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark comparing the JDK HttpServer with NioHttpServer.
+ * Keep-alive clients hammer a small page and a file download; the benchmark reports
+ * requests/sec and the bytes the server side allocated per request.
+ * Usage: java EngineBenchmark [clients] [seconds] [fileKB]
+ */
+public class EngineBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int fileKB = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        System.out.println("========================================");
+        System.out.println("  HTTP Engine Benchmark");
+        System.out.println("  " + clients + " keep-alive clients, " + seconds + " s per run, "
+            + fileKB + " KB file");
+        System.out.println("========================================");
+
+        Path file = Files.createTempFile("engine_bench_", ".bin");
+        try {
+            byte[] data = new byte[fileKB * 1024];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (i * 31);
+            }
+            Files.write(file, data);
+
+            // Warm up both engines so neither run pays for JIT compilation
+            for (String engine : new String[]{"jdk", "nio"}) {
+                run(engine, "/page", Math.min(clients, 8), 1, file, false);
+            }
+            for (String path : new String[]{"/page", "/file"}) {
+                for (String engine : new String[]{"jdk", "nio"}) {
+                    run(engine, path, clients, seconds, file, true);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void run(String engine, String path, int clients, int seconds, Path file,
+                            boolean report) throws Exception {
+        HttpServer server = NioHttpServer.forEngine(engine, new InetSocketAddress("127.0.0.1", 0));
+        byte[] page = JavaWebServer.class.getSimpleName().repeat(200).getBytes(StandardCharsets.UTF_8);
+        server.createContext("/page", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, page.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(page);
+            }
+        });
+        server.createContext("/file", exchange -> {
+            long size = Files.size(file);
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, size);
+            try (OutputStream os = exchange.getResponseBody();
+                 FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ZeroCopyOutput.transfer(channel, 0, size, os);
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(ServerConfig.THREADS);
+        server.setExecutor(executor);
+        server.start();
+        int port = server.getAddress().getPort();
+
+        Set<Long> clientThreads = ConcurrentHashMap.newKeySet();
+        AtomicLong requests = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(clients);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        long[] deadline = new long[1];
+        for (int c = 0; c < clients; c++) {
+            Thread client = new Thread(() -> {
+                clientThreads.add(Thread.currentThread().getId());
+                try (Socket socket = new Socket("127.0.0.1", port)) {
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = new BufferedInputStream(socket.getInputStream(), 65536);
+                    byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                    byte[] skip = new byte[65536];
+                    ready.countDown();
+                    start.await();
+                    while (System.nanoTime() < deadline[0]) {
+                        out.write(request);
+                        out.flush();
+                        long length = readHeaders(in);
+                        while (length > 0) {
+                            int n = in.read(skip, 0, (int) Math.min(skip.length, length));
+                            if (n < 0) {
+                                throw new EOFException("Connection closed mid-response");
+                            }
+                            length -= n;
+                            bytes.addAndGet(n);
+                        }
+                        requests.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    System.err.println("Client failed: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            });
+            client.setDaemon(true);
+            client.start();
+        }
+
+        ready.await();
+        long allocatedBefore = serverAllocatedBytes(clientThreads);
+        long begin = System.nanoTime();
+        deadline[0] = begin + seconds * 1_000_000_000L;
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        long allocated = serverAllocatedBytes(clientThreads) - allocatedBefore;
+
+        server.stop(0);
+        executor.shutdown();
+
+        if (report) {
+            double perSecond = requests.get() / (elapsed / 1e9);
+            System.out.println("");
+            System.out.println("Engine: " + engine + "  path: " + path);
+            System.out.println("  Requests/sec:      " + String.format("%.0f", perSecond));
+            System.out.println("  Throughput:        " + String.format("%.1f MB/s",
+                bytes.get() / (1024.0 * 1024.0) / (elapsed / 1e9)));
+            System.out.println("  Allocated/request: " + String.format("%.0f bytes",
+                requests.get() > 0 ? (double) allocated / requests.get() : 0));
+        }
+    }
+
+    // Reads the status line and headers of one response, returning its Content-Length
+    private static long readHeaders(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        long length = -1;
+        while (true) {
+            int c = in.read();
+            if (c < 0) {
+                throw new EOFException("Connection closed mid-response");
+            }
+            if (c == '\n') {
+                String header = line.toString().trim();
+                if (header.isEmpty()) {
+                    break;
+                }
+                if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Long.parseLong(header.substring(15).trim());
+                }
+                line.setLength(0);
+            } else {
+                line.append((char) c);
+            }
+        }
+        if (length < 0) {
+            throw new IOException("Response without Content-Length");
+        }
+        return length;
+    }
+
+    // Bytes allocated by every live thread except the benchmark's own clients
+    private static long serverAllocatedBytes(Set<Long> clientThreads) {
+        long total = 0;
+        for (long id : THREADS.getAllThreadIds()) {
+            if (!clientThreads.contains(id) && id != Thread.currentThread().getId()) {
+                long allocated = THREADS.getThreadAllocatedBytes(id);
+                if (allocated > 0) {
+                    total += allocated;
+                }
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,142 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Load benchmark comparing the platform-pool and virtual-thread executor modes
+ * under many concurrent slow uploads (clients that trickle their request body).
+ * Usage: java ExecutorLoadBenchmark [clients] [uploadKB] [chunks] [chunkDelayMs]
+ */
+public class ExecutorLoadBenchmark {
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int uploadKB = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int chunks = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int chunkDelayMs = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+
+        System.out.println("========================================");
+        System.out.println("  Executor Load Benchmark");
+        System.out.println("  " + clients + " clients, " + uploadKB + " KB uploads in "
+            + chunks + " chunks, " + chunkDelayMs + " ms apart");
+        System.out.println("========================================");
+
+        // Warm up the JIT and the loopback stack so the first mode is not penalised
+        run("platform", Math.min(clients, 20), uploadKB * 1024, chunks, chunkDelayMs, false);
+
+        for (String mode : new String[]{"platform", "virtual"}) {
+            // Without virtual threads RequestExecutors.create falls back to a platform pool, which
+            // would be reported under the wrong name
+            if (!mode.equals(RequestExecutors.effectiveMode(mode))) {
+                System.out.println();
+                System.out.println("Mode: " + mode + " skipped (requires Java 21+, running on "
+                    + System.getProperty("java.version") + ")");
+                continue;
+            }
+            run(mode, clients, uploadKB * 1024, chunks, chunkDelayMs, true);
+        }
+    }
+
+    private static void run(String mode, int clients, int uploadBytes, int chunks, int chunkDelayMs,
+                            boolean report) throws Exception {
+        ExecutorService executor = RequestExecutors.create(mode, ServerConfig.THREADS);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        // Same work as the compress API: stream the body through the GZIP compressor
+        server.createContext("/upload", exchange -> {
+            CompressionResult result = FileCompressor.compressStream(
+                exchange.getRequestBody(), OutputStream.nullOutputStream());
+            byte[] response = String.valueOf(result.getCompressedSize()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        int port = server.getAddress().getPort();
+
+        byte[] body = new byte[uploadBytes];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + (i * 31 % 26));
+        }
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int c = 0; c < clients; c++) {
+            Thread client = new Thread(() -> {
+                try {
+                    start.await();
+                    long begin = System.nanoTime();
+                    slowUpload(port, body, chunks, chunkDelayMs);
+                    latencies.add(System.nanoTime() - begin);
+                } catch (Exception e) {
+                    System.err.println("Client failed: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            });
+            client.setDaemon(true);
+            client.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        server.stop(0);
+        executor.shutdownNow();
+        if (!report) {
+            return;
+        }
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.println();
+        System.out.println("Mode: " + mode);
+        System.out.println("  Completed:  " + sorted.size() + "/" + clients);
+        System.out.println("  Throughput: " + String.format("%.1f", sorted.size() / (elapsed / 1e9)) + " req/s");
+        if (!sorted.isEmpty()) {
+            System.out.println("  p50:        " + millis(percentile(sorted, 0.50)) + " ms");
+            System.out.println("  p99:        " + millis(percentile(sorted, 0.99)) + " ms");
+        }
+    }
+
+    // Sends a POST whose body arrives in delayed chunks, then reads the full response
+    private static void slowUpload(int port, byte[] body, int chunks, int chunkDelayMs)
+            throws IOException, InterruptedException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            OutputStream out = socket.getOutputStream();
+            String headers = "POST /upload HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                + "Content-Type: application/octet-stream\r\nContent-Length: " + body.length + "\r\n\r\n";
+            out.write(headers.getBytes(StandardCharsets.ISO_8859_1));
+
+            int chunkSize = (body.length + chunks - 1) / chunks;
+            for (int off = 0; off < body.length; off += chunkSize) {
+                out.write(body, off, Math.min(chunkSize, body.length - off));
+                out.flush();
+                Thread.sleep(chunkDelayMs);
+            }
+
+            InputStream in = socket.getInputStream();
+            in.readAllBytes();
+        }
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+}
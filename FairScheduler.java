@@ -0,0 +1,316 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-aware fair scheduling for compression requests.
+ * Requests are routed by Content-Length into a small lane and a bulk lane, each with its
+ * own number of slots (requests running at once), so a multi-GB upload can never sit in
+ * front of small files. Bulk slots also take small requests when no bulk work is waiting;
+ * small slots never take bulk work. Within a lane, clients share the slots by weighted fair
+ * queueing (self-clocked: each request is tagged with a virtual finish time of cost / weight
+ * after the client's previous request, and the lowest tag runs first), so one client's
+ * backlog only delays that client, and a client may hold only a limited number of queued
+ * and running requests per lane.
+ * <p>
+ * The filter runs after rate limiting and admission control. A request waits on its own
+ * thread until its lane grants it a slot and then continues down the chain on that thread,
+ * so the filters before it see the whole request and bodies are read on the server's
+ * request threads. Since a waiting request holds one of those threads, bulk requests are
+ * limited in number (queued and running together) so that a pool of platform threads always
+ * has threads left over for small requests; beyond the limit they get 503.
+ */
+public class FairScheduler extends Filter {
+    private static final double[] WAIT_BUCKETS = {
+        0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private final long smallMaxBytes;
+    private final long unknownLengthBytes;
+    private final int queueCapacity;
+    private final int maxPerClient;
+    private final int maxBulkRequests;
+    private final long retryAfterSeconds;
+    private final Map<String, Double> weights;
+
+    private final Lane small;
+    private final Lane bulk;
+    private long sequence;
+
+    /**
+     * @param smallMaxBytes Requests up to this Content-Length use the small lane
+     * @param smallSlots Requests only the small lane runs at once
+     * @param bulkSlots Requests the bulk lane runs at once; idle bulk slots take small requests
+     * @param queueCapacity Requests each lane may queue before new ones get 503
+     * @param maxPerClient Requests one client may have queued or running in a lane before new ones get 429
+     * @param maxBulkRequests Bulk requests allowed to hold a server thread (queued or running) before
+     *     new ones get 503; at most the server's thread count minus smallSlots
+     * @param unknownLengthBytes Size assumed for bodies without Content-Length
+     * @param retryAfterSeconds Value of the Retry-After header on rejections
+     * @param weights Scheduling weight per client key ("key:" + API key or "ip:" + address); others weigh 1
+     */
+    public FairScheduler(long smallMaxBytes, int smallSlots, int bulkSlots, int queueCapacity, int maxPerClient,
+                         int maxBulkRequests, long unknownLengthBytes, long retryAfterSeconds,
+                         Map<String, Double> weights) {
+        this.smallMaxBytes = smallMaxBytes;
+        this.unknownLengthBytes = unknownLengthBytes;
+        this.queueCapacity = queueCapacity;
+        this.maxPerClient = Math.max(1, maxPerClient);
+        this.maxBulkRequests = Math.max(1, maxBulkRequests);
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.weights = weights;
+        this.small = new Lane(Math.max(0, smallSlots));
+        this.bulk = new Lane(Math.max(1, bulkSlots));
+    }
+
+    /**
+     * Parses "client=weight" pairs separated by commas, e.g. "key:batch=0.5,ip:10.0.0.7=4"
+     */
+    public static Map<String, Double> parseWeights(String spec) {
+        Map<String, Double> weights = new HashMap<>();
+        for (String pair : spec.split(",")) {
+            int eq = pair.lastIndexOf('=');
+            if (eq > 0) {
+                try {
+                    double weight = Double.parseDouble(pair.substring(eq + 1).trim());
+                    if (weight > 0) {
+                        weights.put(pair.substring(0, eq).trim(), weight);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("Ignoring bad scheduler weight: " + pair);
+                }
+            }
+        }
+        return weights;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long size = requestSize(exchange);
+        Lane lane = size <= smallMaxBytes ? small : bulk;
+        String client = RateLimiter.clientKey(exchange);
+        double weight = weights.getOrDefault(client, 1.0);
+        Task task = new Task(client, Math.max(size, 1024) / weight, lane);
+
+        int status = enqueue(task);
+        if (status != 0) {
+            lane.rejected.increment();
+            reject(exchange, status, status == 429
+                ? "Too many requests from this client are queued, please retry later."
+                : "Server is busy, please retry later.");
+            return;
+        }
+        try {
+            awaitSlot(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a scheduler slot");
+        }
+        lane.waitSeconds.record((System.nanoTime() - task.enqueuedAt) / 1e9);
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            release(task);
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Small/bulk lanes with weighted fair queueing per client";
+    }
+
+    private long requestSize(HttpExchange exchange) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Math.max(0, Long.parseLong(contentLength.trim()));
+            } catch (NumberFormatException e) {
+                return unknownLengthBytes;
+            }
+        }
+        return exchange.getRequestHeaders().containsKey("Transfer-Encoding") ? unknownLengthBytes : 0;
+    }
+
+    private void reject(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+        // The body is not read, so the connection cannot be reused
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * @return 0 if queued, 429 if the client has too many requests in the lane, 503 if the lane is full
+     */
+    private synchronized int enqueue(Task task) {
+        Lane lane = task.lane;
+        if (lane.perClient.getOrDefault(task.client, 0) >= maxPerClient) {
+            return 429;
+        }
+        if (lane.queue.size() >= queueCapacity || (lane == bulk && bulk.held >= maxBulkRequests)) {
+            return 503;
+        }
+        lane.add(task, sequence++);
+        dispatch();
+        return 0;
+    }
+
+    private synchronized void awaitSlot(Task task) throws InterruptedException {
+        try {
+            while (task.slot == null) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            if (task.slot == null) {
+                task.lane.cancel(task);
+            } else {
+                release(task);
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void release(Task task) {
+        task.slot.running--;
+        task.lane.done(task.client);
+        dispatch();
+    }
+
+    // Fills free slots in fair-queue order; bulk slots never sit idle while small requests wait
+    private void dispatch() {
+        boolean granted = false;
+        while (small.running < small.slots && !small.queue.isEmpty()) {
+            small.poll().slot = small;
+            small.running++;
+            granted = true;
+        }
+        while (bulk.running < bulk.slots && (!bulk.queue.isEmpty() || !small.queue.isEmpty())) {
+            Task task = !bulk.queue.isEmpty() ? bulk.poll() : small.poll();
+            task.slot = bulk;
+            bulk.running++;
+            granted = true;
+        }
+        if (granted) {
+            notifyAll();
+        }
+    }
+
+    public synchronized int getQueueDepth(boolean bulkLane) {
+        return (bulkLane ? bulk : small).queue.size();
+    }
+
+    public synchronized int getRunning(boolean bulkLane) {
+        return (bulkLane ? bulk : small).running;
+    }
+
+    /**
+     * Appends per-lane queue depth, dispatch counts and wait times in Prometheus format
+     */
+    public void writePrometheus(StringBuilder out) {
+        out.append("# TYPE scheduler_queue_depth gauge\n");
+        Metrics.sample(out, "scheduler_queue_depth{lane=\"small\"}", getQueueDepth(false));
+        Metrics.sample(out, "scheduler_queue_depth{lane=\"bulk\"}", getQueueDepth(true));
+        out.append("# TYPE scheduler_running gauge\n");
+        Metrics.sample(out, "scheduler_running{lane=\"small\"}", getRunning(false));
+        Metrics.sample(out, "scheduler_running{lane=\"bulk\"}", getRunning(true));
+        out.append("# TYPE scheduler_dispatched_total counter\n");
+        Metrics.sample(out, "scheduler_dispatched_total{lane=\"small\"}", small.dispatched.sum());
+        Metrics.sample(out, "scheduler_dispatched_total{lane=\"bulk\"}", bulk.dispatched.sum());
+        out.append("# TYPE scheduler_rejected_total counter\n");
+        Metrics.sample(out, "scheduler_rejected_total{lane=\"small\"}", small.rejected.sum());
+        Metrics.sample(out, "scheduler_rejected_total{lane=\"bulk\"}", bulk.rejected.sum());
+        out.append("# TYPE scheduler_wait_seconds histogram\n");
+        small.waitSeconds.writePrometheus(out, "scheduler_wait_seconds", "lane=\"small\"");
+        bulk.waitSeconds.writePrometheus(out, "scheduler_wait_seconds", "lane=\"bulk\"");
+    }
+
+    /**
+     * One lane's fair queue and slots; guarded by the scheduler's monitor
+     */
+    private static class Lane {
+        final int slots;
+        int running;
+        final PriorityQueue<Task> queue = new PriorityQueue<>((a, b) -> a.finishTag != b.finishTag
+            ? Double.compare(a.finishTag, b.finishTag) : Long.compare(a.sequence, b.sequence));
+        // Finish tag of each client's latest queued request
+        final Map<String, Double> lastFinish = new HashMap<>();
+        // Queued and running requests, in total and per client
+        int held;
+        final Map<String, Integer> perClient = new HashMap<>();
+        double virtualTime;
+
+        final LongAdder dispatched = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final Histogram waitSeconds = new Histogram(WAIT_BUCKETS);
+
+        Lane(int slots) {
+            this.slots = slots;
+        }
+
+        void add(Task task, long sequence) {
+            double start = Math.max(virtualTime, lastFinish.getOrDefault(task.client, 0.0));
+            task.finishTag = start + task.cost;
+            task.sequence = sequence;
+            lastFinish.put(task.client, task.finishTag);
+            perClient.merge(task.client, 1, Integer::sum);
+            held++;
+            queue.add(task);
+        }
+
+        Task poll() {
+            Task task = queue.poll();
+            virtualTime = task.finishTag;
+            forgetIfIdle();
+            dispatched.increment();
+            return task;
+        }
+
+        void cancel(Task task) {
+            queue.remove(task);
+            done(task.client);
+            forgetIfIdle();
+        }
+
+        void done(String client) {
+            held--;
+            perClient.computeIfPresent(client, (k, n) -> n > 1 ? n - 1 : null);
+        }
+
+        private void forgetIfIdle() {
+            if (queue.isEmpty()) {
+                // No client is backlogged, so the history no longer matters
+                lastFinish.clear();
+                virtualTime = 0;
+            }
+        }
+    }
+
+    /**
+     * A request waiting for, or holding, a slot
+     */
+    private static class Task {
+        final String client;
+        final double cost;
+        // Lane the request was queued in; slot is the lane whose slot it got (small requests may get a bulk one)
+        final Lane lane;
+        Lane slot;
+        final long enqueuedAt = System.nanoTime();
+        double finishTag;
+        long sequence;
+
+        Task(String client, double cost, Lane lane) {
+            this.client = client;
+            this.cost = cost;
+            this.lane = lane;
+        }
+    }
+}
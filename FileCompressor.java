@@ -1,11 +1,28 @@
 import java.io.*;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
 import java.util.zip.*;
 
 
 public class FileCompressor {
+    // Chooses level and strategy for compressions with automatic settings
+    private static final CompressionTuner tuner = new CompressionTuner(
+        ServerConfig.TUNING_SAMPLE_BYTES, ServerConfig.TUNING_TARGET_MBPS);
     
     /**
-     * Compresses a file using GZIP compression
+     * Receives progress updates from long-running compressions
+     */
+    public interface ProgressListener {
+        /**
+         * @param bytesProcessed Uncompressed bytes consumed so far
+         */
+        void onProgress(long bytesProcessed);
+    }
+    
+    /**
+     * Compresses a file using GZIP compression. Input that is already compressed or random
+     * (see Compressibility) is stored rather than deflated.
      * 
      * @param sourceFile Path to the file to compress
      * @param destFile Path to save the compressed file
@@ -21,10 +38,17 @@ public class FileCompressor {
             // Create input stream for source file
             fis = new FileInputStream(sourceFile);
             bis = new BufferedInputStream(fis);
+            Compressibility.Estimate estimate =
+                Compressibility.analyze(Paths.get(sourceFile), tuner.getSampleBytes());
             
             // Create output stream for compressed file
             fos = new FileOutputStream(destFile);
-            gzos = new GZIPOutputStream(fos);
+            if (estimate.isIncompressible()) {
+                System.out.println("Input looks incompressible (" + estimate + "), storing it");
+                gzos = GzipCodec.newOutputStream(fos, CompressionSettings.STORE);
+            } else {
+                gzos = new GZIPOutputStream(fos);
+            }
             BufferedOutputStream bos = new BufferedOutputStream(gzos);
             
             // Read from source and write to compressed file
@@ -75,6 +99,393 @@ public class FileCompressor {
         }
     }
     
+    /**
+     * Compresses a file like compressFile, deflating blocks of it on all cores of the
+     * common ForkJoinPool. The result is a standard gzip file.
+     *
+     * @param sourceFile Path to the file to compress
+     * @param destFile Path to save the compressed file
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressFileParallel(String sourceFile, String destFile) {
+        return compressFileParallel(sourceFile, destFile, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compresses a file with ParallelGzipOutputStream on the given pool
+     *
+     * @param sourceFile Path to the file to compress
+     * @param destFile Path to save the compressed file
+     * @param pool Pool whose threads deflate the 128 KB blocks
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressFileParallel(String sourceFile, String destFile,
+                                                         ForkJoinPool pool) {
+        try (InputStream in = new FileInputStream(sourceFile);
+             OutputStream out = new ParallelGzipOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(destFile), 65536),
+                 ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, pool)) {
+            in.transferTo(out);
+        } catch (FileNotFoundException e) {
+            String errorMsg = "Error: Source file not found - " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        } catch (IOException e) {
+            String errorMsg = "Error during compression: " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        }
+        return new CompressionResult(true, "Compression completed successfully!",
+                                   new File(sourceFile).length(), new File(destFile).length());
+    }
+
+    /**
+     * Compresses a file into blocked gzip (BGZF layout) with BlockedGzipOutputStream.
+     * Any gunzip can read the result, and decompressFile inflates it on all cores.
+     *
+     * @param sourceFile Path to the file to compress
+     * @param destFile Path to save the compressed file
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressFileBlocked(String sourceFile, String destFile) {
+        try (InputStream in = new FileInputStream(sourceFile);
+             OutputStream out = new BlockedGzipOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(destFile), 65536))) {
+            in.transferTo(out);
+        } catch (FileNotFoundException e) {
+            String errorMsg = "Error: Source file not found - " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        } catch (IOException e) {
+            String errorMsg = "Error during compression: " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        }
+        return new CompressionResult(true, "Compression completed successfully!",
+                                   new File(sourceFile).length(), new File(destFile).length());
+    }
+
+    /**
+     * Compresses a file with the given codec, e.g. to LZ4 for speed or ZIP with a single entry
+     *
+     * @param sourceFile Path to the file to compress
+     * @param destFile Path to save the compressed file
+     * @param codec Compression format
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressFile(String sourceFile, String destFile, Codec codec) {
+        return compressFile(sourceFile, destFile, codec, CompressionSettings.DEFAULT);
+    }
+
+    /**
+     * Compresses a file with the given codec, level and strategy. Unless a level is given, a file
+     * judged incompressible from slices of its start, middle and end is stored, zip files getting
+     * a STORED entry.
+     *
+     * @param sourceFile Path to the file to compress
+     * @param destFile Path to save the compressed file
+     * @param codec Compression format
+     * @param settings Level and strategy, or CompressionSettings.AUTO to choose them from a sample
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressFile(String sourceFile, String destFile, Codec codec,
+                                                 CompressionSettings settings) {
+        String filename = new File(sourceFile).getName();
+        try (InputStream in = new FileInputStream(sourceFile);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(destFile), 65536)) {
+            if (mayStore(codec, settings)) {
+                Compressibility.Estimate estimate =
+                    Compressibility.analyze(Paths.get(sourceFile), tuner.getSampleBytes());
+                if (estimate.isIncompressible()) {
+                    long size = new File(sourceFile).length();
+                    long crc = codec.needsChecksumToStore() ? checksum(sourceFile) : -1;
+                    return withNote(compressWith(in, out,
+                        o -> codec.storingCompressor(o, filename, size, crc), null, true), "stored: " + estimate);
+                }
+            }
+            return compressSampled(in, out, codec, settings, filename, null, false, true);
+        } catch (FileNotFoundException e) {
+            String errorMsg = "Error: Source file not found - " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        } catch (IOException e) {
+            String errorMsg = "Error during compression: " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        }
+    }
+
+    /**
+     * Compresses the contents of a stream using GZIP compression.
+     * The source is read incrementally, so it never has to fit in memory.
+     *
+     * @param source Stream to read uncompressed data from (not closed)
+     * @param destFile Path to save the compressed file
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressStream(InputStream source, String destFile) {
+        try (FileOutputStream fos = new FileOutputStream(destFile)) {
+            return compressStream(source, fos);
+        } catch (IOException e) {
+            String errorMsg = "Error during compression: " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        }
+    }
+
+    /**
+     * Compresses the contents of a stream using GZIP compression directly into
+     * another stream, e.g. an in-memory buffer or an HTTP response body.
+     *
+     * @param source Stream to read uncompressed data from (not closed)
+     * @param dest Stream to write the GZIP data to (not closed)
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressStream(InputStream source, OutputStream dest) {
+        return compressStream(source, dest, null);
+    }
+
+    /**
+     * Compresses a stream like compressStream(InputStream, OutputStream), reporting
+     * progress after every buffer.
+     *
+     * @param source Stream to read uncompressed data from (not closed)
+     * @param dest Stream to write the GZIP data to (not closed)
+     * @param listener Progress callback, or null
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressStream(InputStream source, OutputStream dest,
+                                                   ProgressListener listener) {
+        return compressStream(source, dest, Codecs.gzip(), null, listener);
+    }
+
+    /**
+     * Compresses a stream with the given codec at the given level and strategy. Unless a level
+     * is given, a sample from the start of the stream is checked first (see Compressibility)
+     * and incompressible input is stored; with automatic settings, the sample is then compressed
+     * with several candidates (see CompressionTuner). Either outcome is noted in the result message.
+     *
+     * @param source Stream to read uncompressed data from (not closed)
+     * @param dest Stream to write the compressed data to (not closed)
+     * @param codec Compression format
+     * @param settings Level and strategy, or CompressionSettings.AUTO
+     * @param filename Original file name, stored by formats that keep one (zip); may be null
+     * @param listener Progress callback, or null
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressStream(InputStream source, OutputStream dest, Codec codec,
+                                                   CompressionSettings settings, String filename,
+                                                   ProgressListener listener) {
+        return compressSampled(source, dest, codec, settings, filename, listener, true, true);
+    }
+
+    /**
+     * Compresses a sample of some input the way compressStream would compress the whole of it,
+     * storing or tuning alike, to predict the compressed size. The sample is not counted as a
+     * compression in the metrics or the access log.
+     *
+     * @param sample Sample, starting at the beginning of the input
+     * @param length Number of sample bytes
+     * @param codec Compression format
+     * @param settings Level and strategy, or CompressionSettings.AUTO
+     * @param filename Original file name; may be null
+     * @return CompressionResult with the sample's original and compressed sizes
+     */
+    public static CompressionResult compressSample(byte[] sample, int length, Codec codec,
+                                                   CompressionSettings settings, String filename) {
+        return compressSampled(new ByteArrayInputStream(sample, 0, length), OutputStream.nullOutputStream(),
+            codec, settings, filename, null, true, false);
+    }
+
+    /**
+     * Reads a sample from the start of the stream when it is needed to decide how to compress,
+     * then compresses the sample followed by the rest of the stream
+     *
+     * @param detect Whether to check the sample for incompressible input
+     * @param record Whether to count the compression in the metrics
+     */
+    private static CompressionResult compressSampled(InputStream source, OutputStream dest, Codec codec,
+                                                     CompressionSettings settings, String filename,
+                                                     ProgressListener listener, boolean detect, boolean record) {
+        boolean store = detect && mayStore(codec, settings);
+        if (!store && !settings.isAuto()) {
+            return compressWith(source, dest, configured(codec, settings, filename), listener, record);
+        }
+        byte[] sample;
+        try {
+            sample = source.readNBytes(tuner.getSampleBytes());
+        } catch (IOException e) {
+            String errorMsg = "Error during compression: " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        }
+        InputStream input = new SequenceInputStream(new ByteArrayInputStream(sample), source);
+
+        if (store) {
+            Compressibility.Estimate estimate = Compressibility.analyze(sample, sample.length);
+            if (estimate.isIncompressible()) {
+                // A short input is all in the sample, so zip can write a STORED entry for it
+                boolean whole = sample.length < tuner.getSampleBytes();
+                long size = whole ? sample.length : -1;
+                long crc = whole && codec.needsChecksumToStore() ? checksum(sample) : -1;
+                return withNote(compressWith(input, dest,
+                    out -> codec.storingCompressor(out, filename, size, crc), listener, record),
+                    "stored: " + estimate);
+            }
+        }
+        if (!settings.isAuto()) {
+            return compressWith(input, dest, configured(codec, settings, filename), listener, record);
+        }
+        CompressionSettings chosen;
+        try {
+            chosen = tuner.choose(codec, sample, sample.length);
+        } catch (IOException e) {
+            String errorMsg = "Error during compression: " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        }
+        CompressionResult result = compressWith(input, dest, configured(codec, chosen, filename), listener, record);
+        return codec.hasSettings() ? withNote(result, "auto: " + chosen) : result;
+    }
+
+    private static CompressorFactory configured(Codec codec, CompressionSettings settings, String filename) {
+        Codec configured = codec.configure(settings);
+        return out -> configured.compressor(out, filename);
+    }
+
+    /**
+     * @return true if the input may be stored when it looks incompressible: the codec takes
+     *     a level, and the caller left the level to the defaults or the tuner
+     */
+    private static boolean mayStore(Codec codec, CompressionSettings settings) {
+        return codec.hasSettings()
+            && (settings.isAuto() || settings.getLevel() == Deflater.DEFAULT_COMPRESSION);
+    }
+
+    private static CompressionResult withNote(CompressionResult result, String note) {
+        if (!result.isSuccess()) {
+            return result;
+        }
+        return new CompressionResult(true, result.getMessage() + " (" + note + ")",
+                                   result.getOriginalSize(), result.getCompressedSize());
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static long checksum(String file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Compresses a stream with the given codec, reporting progress after every buffer
+     *
+     * @param source Stream to read uncompressed data from (not closed)
+     * @param dest Stream to write the compressed data to (not closed)
+     * @param codec Compression format
+     * @param filename Original file name, stored by formats that keep one (zip); may be null
+     * @param listener Progress callback, or null
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult compressStream(InputStream source, OutputStream dest, Codec codec,
+                                                   String filename, ProgressListener listener) {
+        return compressWith(source, dest, out -> codec.compressor(out, filename), listener, true);
+    }
+
+    /**
+     * Opens the compressing stream on top of the destination
+     */
+    private interface CompressorFactory {
+        OutputStream open(OutputStream out) throws IOException;
+    }
+
+    private static CompressionResult compressWith(InputStream source, OutputStream dest,
+                                                  CompressorFactory factory, ProgressListener listener,
+                                                  boolean record) {
+        long start = System.nanoTime();
+        try {
+            CountingOutputStream counter = new CountingOutputStream(dest);
+            long originalSize = 0;
+
+            // Closing finishes the format and frees the deflater, also when reading fails;
+            // the unclosed wrapper only flushes dest
+            try (OutputStream compressor = factory.open(new Codec.UnclosedOutputStream(counter))) {
+                byte[] buffer = new byte[8192]; // 8KB buffer
+                int bytesRead;
+                while ((bytesRead = source.read(buffer)) != -1) {
+                    compressor.write(buffer, 0, bytesRead);
+                    originalSize += bytesRead;
+                    if (listener != null) {
+                        listener.onProgress(originalSize);
+                    }
+                }
+            }
+            if (record) {
+                Metrics.recordCompression(originalSize, counter.getCount(), System.nanoTime() - start);
+            }
+
+            return new CompressionResult(true, "Compression completed successfully!",
+                                       originalSize, counter.getCount());
+
+        } catch (IOException e) {
+            String errorMsg = "Error during compression: " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        }
+    }
+
+    /**
+     * Decompresses a GZIP stream directly into another stream, e.g. an HTTP response body.
+     * Blocked gzip (see compressFileBlocked) is inflated on all cores.
+     *
+     * @param source Stream to read GZIP data from (not closed)
+     * @param dest Stream to write the decompressed data to (not closed)
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult decompressStream(InputStream source, OutputStream dest) {
+        return decompressStream(source, dest, Codecs.gzip());
+    }
+
+    /**
+     * Decompresses a stream in the given codec's format directly into another stream
+     *
+     * @param source Stream to read compressed data from (not closed)
+     * @param dest Stream to write the decompressed data to (not closed)
+     * @param codec Format of the compressed data
+     * @return CompressionResult with operation status and statistics
+     */
+    public static CompressionResult decompressStream(InputStream source, OutputStream dest, Codec codec) {
+        try {
+            CountingInputStream counter = new CountingInputStream(source);
+            long decompressedSize = codec.decompress(counter, dest);
+            dest.flush();
+
+            return new CompressionResult(true, "Decompression completed successfully!",
+                                       counter.getCount(), decompressedSize);
+
+        } catch (ZipException e) {
+            String errorMsg = "Error: Stream is not valid " + codec.getName().toUpperCase() + " data - "
+                + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        } catch (IOException e) {
+            String errorMsg = "Error during decompression: " + e.getMessage();
+            System.err.println(errorMsg);
+            return new CompressionResult(false, errorMsg);
+        }
+    }
+
     /**
      * Decompresses a GZIP compressed file
      * 
@@ -85,27 +496,19 @@ public class FileCompressor {
     public static CompressionResult decompressFile(String sourceFile, String destFile) {
         FileInputStream fis = null;
         FileOutputStream fos = null;
-        GZIPInputStream gzis = null;
         BufferedOutputStream bos = null;
         
         try {
             // Create input stream for compressed file
             fis = new FileInputStream(sourceFile);
-            gzis = new GZIPInputStream(fis);
-            BufferedInputStream bis = new BufferedInputStream(gzis);
             
             // Create output stream for decompressed file
             fos = new FileOutputStream(destFile);
-            bos = new BufferedOutputStream(fos);
-            
-            // Read from compressed file and write to decompressed file
-            byte[] buffer = new byte[8192]; // 8KB buffer
-            int bytesRead;
+            bos = new BufferedOutputStream(fos, 65536);
             
+            // Blocked gzip is inflated on all cores, anything else sequentially
             System.out.println("Decompressing file: " + sourceFile);
-            while ((bytesRead = bis.read(buffer)) != -1) {
-                bos.write(buffer, 0, bytesRead);
-            }
+            ParallelGunzip.decompress(new BufferedInputStream(fis, 65536), bos, ForkJoinPool.commonPool());
             
             bos.flush();
             
@@ -137,7 +540,6 @@ public class FileCompressor {
         } finally {
             // Close all streams
             try {
-                if (gzis != null) gzis.close();
                 if (fis != null) fis.close();
                 if (bos != null) bos.close();
                 if (fos != null) fos.close();
@@ -218,12 +620,39 @@ public class FileCompressor {
      * @return true if decompression successful, false otherwise
      */
     public static boolean decompressZip(String zipFilePath, String destDirectory) {
-        FileInputStream fis = null;
-        ZipInputStream zis = null;
-        
-        try {
-            fis = new FileInputStream(zipFilePath);
-            zis = new ZipInputStream(fis);
+        try (FileInputStream fis = new FileInputStream(zipFilePath)) {
+            return decompressZip(fis, destDirectory);
+        } catch (IOException e) {
+            System.err.println("Error extracting ZIP file: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Decompresses a ZIP archive read from a stream.
+     * Entries whose names would resolve outside the destination directory are rejected.
+     * 
+     * @param source Stream positioned at the start of the ZIP data
+     * @param destDirectory Directory to extract files to
+     * @return true if decompression successful, false otherwise
+     */
+    public static boolean decompressZip(InputStream source, String destDirectory) {
+        return decompressZip(source, destDirectory, UnaryOperator.identity());
+    }
+    
+    /**
+     * Decompresses a ZIP archive read from a stream, writing each entry through a wrapper,
+     * e.g. one that enforces a disk quota while the data is written
+     * 
+     * @param source Stream positioned at the start of the ZIP data (not closed)
+     * @param destDirectory Directory to extract files to
+     * @param entryOutput Wraps the file stream of each extracted entry
+     * @return true if decompression successful, false otherwise
+     */
+    public static boolean decompressZip(InputStream source, String destDirectory,
+                                        UnaryOperator<OutputStream> entryOutput) {
+        // Closing releases the Inflater; the wrapper keeps source open
+        try (ZipInputStream zis = new ZipInputStream(new Codec.UnclosedInputStream(source))) {
             BufferedInputStream bis = new BufferedInputStream(zis);
             
             // Create destination directory if it doesn't exist
@@ -231,11 +660,15 @@ public class FileCompressor {
             if (!destDir.exists()) {
                 destDir.mkdirs();
             }
+            String destPath = destDir.getCanonicalPath() + File.separator;
             
             ZipEntry entry;
             while ((entry = zis.getNextEntry()) != null) {
                 String entryName = entry.getName();
                 File outputFile = new File(destDirectory, entryName);
+                if (!outputFile.getCanonicalPath().startsWith(destPath)) {
+                    throw new IOException("Entry is outside the target directory: " + entryName);
+                }
                 
                 // Create parent directories if needed
                 if (entry.isDirectory()) {
@@ -246,36 +679,95 @@ public class FileCompressor {
                 outputFile.getParentFile().mkdirs();
                 
                 // Extract file
-                FileOutputStream fos = new FileOutputStream(outputFile);
-                BufferedOutputStream bos = new BufferedOutputStream(fos);
-                
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = bis.read(buffer)) != -1) {
-                    bos.write(buffer, 0, bytesRead);
+                try (BufferedOutputStream bos = new BufferedOutputStream(
+                         entryOutput.apply(new FileOutputStream(outputFile)))) {
+                    byte[] buffer = new byte[8192];
+                    int bytesRead;
+                    while ((bytesRead = bis.read(buffer)) != -1) {
+                        bos.write(buffer, 0, bytesRead);
+                    }
                 }
                 
-                bos.flush();
-                bos.close();
-                fos.close();
-                
-                System.out.println("Extracted: " + entryName);
                 zis.closeEntry();
             }
             
-            System.out.println("ZIP file extracted successfully to: " + destDirectory);
             return true;
             
         } catch (IOException e) {
             System.err.println("Error extracting ZIP file: " + e.getMessage());
             return false;
-        } finally {
-            try {
-                if (zis != null) zis.close();
-                if (fis != null) fis.close();
-            } catch (IOException e) {
-                System.err.println("Error closing streams: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pass-through stream that counts the bytes read from it
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
             }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Pass-through stream that counts the bytes written to it
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
         }
     }
 }
@@ -0,0 +1,83 @@
+import java.io.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GZIP, the default codec. Decompression goes through ParallelGunzip, so blocked gzip is
+ * inflated on all cores and any other gzip data sequentially.
+ */
+public class GzipCodec implements Codec {
+    private final CompressionSettings settings;
+
+    public GzipCodec() {
+        this(CompressionSettings.DEFAULT);
+    }
+
+    private GzipCodec(CompressionSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public String getName() {
+        return "gzip";
+    }
+
+    @Override
+    public String getExtension() {
+        return ".gz";
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/gzip";
+    }
+
+    @Override
+    public boolean matches(byte[] header, int length) {
+        return length >= 2 && header[0] == 0x1f && header[1] == (byte) 0x8b;
+    }
+
+    @Override
+    public boolean hasSettings() {
+        return true;
+    }
+
+    @Override
+    public Codec configure(CompressionSettings settings) {
+        return new GzipCodec(settings);
+    }
+
+    @Override
+    public OutputStream compressor(OutputStream out, String filename) throws IOException {
+        return newOutputStream(out, settings);
+    }
+
+    /**
+     * @return a GZIPOutputStream deflating with the given level and strategy
+     */
+    static GZIPOutputStream newOutputStream(OutputStream out, CompressionSettings settings) throws IOException {
+        return new Output(out, settings);
+    }
+
+    @Override
+    public InputStream decompressor(InputStream in) throws IOException {
+        return new GZIPInputStream(in, 65536);
+    }
+
+    @Override
+    public long decompress(InputStream source, OutputStream dest) throws IOException {
+        return ParallelGunzip.decompress(source, dest, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * GZIPOutputStream whose Deflater uses the given level and strategy
+     */
+    private static class Output extends GZIPOutputStream {
+        Output(OutputStream out, CompressionSettings settings) throws IOException {
+            super(out, 8192);
+            def.setLevel(settings.getLevel());
+            def.setStrategy(settings.getStrategy());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An HTML page template compiled once at startup.
+ * The source marks dynamic values with {{name}} placeholders, filled in order (the name
+ * only documents the value). Everything between them is encoded to UTF-8 up front, so
+ * rendering writes the static fragments as ready-made byte arrays and encodes (and
+ * HTML-escapes) each value straight into the response stream.
+ * Rendering builds no page String and allocates only the Renderer itself, and the first
+ * fragment goes out as soon as rendering starts.
+ */
+public class HtmlTemplate {
+    // Per-thread staging area for encoded values, flushed to the stream as it fills
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[4096]);
+    // Room for the longest escape ("&quot;") or a 4-byte UTF-8 sequence
+    private static final int MAX_CHAR_BYTES = 8;
+
+    private final byte[][] fragments;
+    private final int slots;
+
+    private HtmlTemplate(byte[][] fragments, int slots) {
+        this.fragments = fragments;
+        this.slots = slots;
+    }
+
+    /**
+     * Splits a template source at its {{name}} placeholders
+     *
+     * @param source Template text
+     * @return the compiled template
+     * @throws IllegalArgumentException if a placeholder is not closed
+     */
+    public static HtmlTemplate compile(String source) {
+        List<byte[]> fragments = new ArrayList<>();
+        int pos = 0;
+        int open;
+        while ((open = source.indexOf("{{", pos)) >= 0) {
+            int close = source.indexOf("}}", open + 2);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at offset " + open);
+            }
+            fragments.add(source.substring(pos, open).getBytes(StandardCharsets.UTF_8));
+            pos = close + 2;
+        }
+        fragments.add(source.substring(pos).getBytes(StandardCharsets.UTF_8));
+        return new HtmlTemplate(fragments.toArray(new byte[0][]), fragments.size() - 1);
+    }
+
+    /**
+     * Starts rendering into a stream, writing the leading static fragment right away.
+     * Values are then supplied in placeholder order, and close() writes the rest.
+     */
+    public Renderer render(OutputStream out) throws IOException {
+        return new Renderer(out);
+    }
+
+    /**
+     * Streams one rendering of the template. Each value call fills the next placeholder
+     * and writes the static fragment that follows it.
+     */
+    public class Renderer implements Closeable {
+        private final OutputStream out;
+        private final byte[] scratch = SCRATCH.get();
+        private int length;
+        private int slot;
+
+        private Renderer(OutputStream out) throws IOException {
+            this.out = out;
+            out.write(fragments[0]);
+        }
+
+        /**
+         * Fills the next placeholder with HTML-escaped text; null renders as nothing
+         */
+        public Renderer text(String value) throws IOException {
+            checkSlot();
+            if (value != null) {
+                for (int i = 0; i < value.length(); i++) {
+                    if (length > scratch.length - MAX_CHAR_BYTES) {
+                        flush();
+                    }
+                    char c = value.charAt(i);
+                    switch (c) {
+                        case '&': ascii("&amp;"); break;
+                        case '<': ascii("&lt;"); break;
+                        case '>': ascii("&gt;"); break;
+                        case '"': ascii("&quot;"); break;
+                        case '\'': ascii("&#39;"); break;
+                        default:
+                            if (c < 0x80) {
+                                scratch[length++] = (byte) c;
+                            } else if (c < 0x800) {
+                                scratch[length++] = (byte) (0xC0 | (c >> 6));
+                                scratch[length++] = (byte) (0x80 | (c & 0x3F));
+                            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                                int cp = Character.toCodePoint(c, value.charAt(++i));
+                                scratch[length++] = (byte) (0xF0 | (cp >> 18));
+                                scratch[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                                scratch[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                                scratch[length++] = (byte) (0x80 | (cp & 0x3F));
+                            } else if (Character.isSurrogate(c)) {
+                                // Unpaired surrogate, encoded as '?' like String.getBytes does
+                                scratch[length++] = '?';
+                            } else {
+                                scratch[length++] = (byte) (0xE0 | (c >> 12));
+                                scratch[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                                scratch[length++] = (byte) (0x80 | (c & 0x3F));
+                            }
+                    }
+                }
+            }
+            return next();
+        }
+
+        /**
+         * Fills the next placeholder with a whole number
+         */
+        public Renderer number(long value) throws IOException {
+            checkSlot();
+            digits(value);
+            return next();
+        }
+
+        /**
+         * Fills the next placeholder with a number rounded half-up to the given decimals,
+         * as String.format("%.Nf") prints it
+         */
+        public Renderer decimal(double value, int fractionDigits) throws IOException {
+            checkSlot();
+            long scale = 1;
+            for (int i = 0; i < fractionDigits; i++) {
+                scale *= 10;
+            }
+            if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) * scale >= 1e15) {
+                // Out of exact long range; rare enough to take the allocating path
+                ascii(String.format("%." + fractionDigits + "f", value));
+            } else {
+                if (value < 0) {
+                    scratch[length++] = '-';
+                }
+                double x = Math.abs(value) * scale;
+                long scaled = (long) Math.floor(x);
+                // Formatter rounds the shortest decimal form half-up, so a value printed as
+                // 39.925 must round up even if the binary double sits a hair below it
+                if (x - scaled >= 0.5 - 4 * Math.ulp(x)) {
+                    scaled++;
+                }
+                fixedPoint(scaled / scale, scaled % scale, scale);
+            }
+            return next();
+        }
+
+        /**
+         * Fills the next placeholder with a byte count as "512 B", "1.50 KB", "2.25 MB" or
+         * "3.00 GB", matching CompressionResult.formatFileSize
+         */
+        public Renderer fileSize(long bytes) throws IOException {
+            checkSlot();
+            if (bytes < 1024) {
+                digits(bytes);
+                ascii(" B");
+            } else if (bytes < 1024 * 1024) {
+                scaledSize(bytes, 1024, " KB");
+            } else if (bytes < 1024 * 1024 * 1024) {
+                scaledSize(bytes, 1024 * 1024, " MB");
+            } else {
+                scaledSize(bytes, 1024 * 1024 * 1024, " GB");
+            }
+            return next();
+        }
+
+        /**
+         * Writes the trailing static fragment if every placeholder was filled, then closes
+         * the stream. A rendering abandoned half way is cut short rather than completed.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (slot == slots) {
+                    out.write(fragments[slot]);
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        private void checkSlot() {
+            if (slot >= slots) {
+                throw new IllegalStateException("Template has only " + slots + " placeholders");
+            }
+        }
+
+        // Flushes the encoded value and writes the static fragment after it
+        private Renderer next() throws IOException {
+            flush();
+            slot++;
+            if (slot < slots) {
+                out.write(fragments[slot]);
+            }
+            return this;
+        }
+
+        private void flush() throws IOException {
+            if (length > 0) {
+                out.write(scratch, 0, length);
+                length = 0;
+            }
+        }
+
+        private void ascii(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                scratch[length++] = (byte) s.charAt(i);
+            }
+        }
+
+        private void digits(long value) {
+            if (value == Long.MIN_VALUE) {
+                ascii(Long.toString(value));
+                return;
+            }
+            if (value < 0) {
+                scratch[length++] = '-';
+                value = -value;
+            }
+            int count = 1;
+            for (long v = value; v >= 10; v /= 10) {
+                count++;
+            }
+            for (int i = length + count - 1; i >= length; i--) {
+                scratch[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += count;
+        }
+
+        private void fixedPoint(long whole, long fraction, long scale) {
+            digits(whole);
+            if (scale > 1) {
+                scratch[length++] = '.';
+                for (long place = scale / 10; place > 0; place /= 10) {
+                    scratch[length++] = (byte) ('0' + fraction / place % 10);
+                }
+            }
+        }
+
+        // Two decimals of bytes / unit, rounded half-up in exact integer arithmetic
+        private void scaledSize(long bytes, long unit, String suffix) {
+            long whole = bytes / unit;
+            long hundredths = ((bytes % unit) * 200 + unit) / (2 * unit);
+            if (hundredths == 100) {
+                whole++;
+                hundredths = 0;
+            }
+            fixedPoint(whole, hundredths, 100);
+            ascii(suffix);
+        }
+    }
+}
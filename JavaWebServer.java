@@ -1,3 +1,5 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
@@ -5,12 +7,20 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Pure Java Web Server - No JavaScript Required
@@ -19,22 +29,77 @@ import java.util.concurrent.Executors;
 public class JavaWebServer {
     private static final int PORT = 8080;
     private static String networkIP = "localhost";
+    private static ResultStore resultStore;
+    private static ExecutorService requestExecutor;
+    private static JobManager jobManager;
+    private static ScratchStorage scratchStorage;
+    private static UploadManager uploadManager;
+    private static AccessLog accessLog;
+    private static final AdmissionController admissionController = new AdmissionController(
+        ServerConfig.MAX_REQUEST_BYTES, ServerConfig.IN_FLIGHT_BYTES, ServerConfig.UNKNOWN_LENGTH_BYTES,
+        ServerConfig.QUEUE_CAPACITY, ServerConfig.RETRY_AFTER_SECONDS);
+    private static final RateLimiter rateLimiter = new RateLimiter(
+        ServerConfig.RATE_REQUESTS_PER_SECOND, ServerConfig.RATE_REQUEST_BURST,
+        ServerConfig.RATE_BYTES_PER_SECOND, ServerConfig.RATE_BYTE_BURST,
+        ServerConfig.UNKNOWN_LENGTH_BYTES, ServerConfig.RATE_IDLE_SECONDS);
+    private static final FairScheduler scheduler = new FairScheduler(
+        ServerConfig.SCHEDULER_SMALL_MAX_BYTES, ServerConfig.SCHEDULER_SMALL_THREADS,
+        ServerConfig.SCHEDULER_BULK_THREADS, ServerConfig.SCHEDULER_QUEUE_CAPACITY,
+        ServerConfig.SCHEDULER_MAX_PER_CLIENT, maxBulkRequests(), ServerConfig.UNKNOWN_LENGTH_BYTES, ServerConfig.RETRY_AFTER_SECONDS,
+        FairScheduler.parseWeights(ServerConfig.SCHEDULER_WEIGHTS));
+    private static final ResultCache resultCache = new ResultCache(ServerConfig.CACHE_MAX_BYTES);
+    private static final CompressionFilter compressionFilter = new CompressionFilter(
+        ServerConfig.ENCODING_MIN_SIZE, ServerConfig.ENCODING_MIME_TYPES);
+    
+    // Static pages are rendered and gzipped once, when the class is loaded
+    private static final StaticPage HOME_PAGE =
+        StaticPage.of("text/html; charset=UTF-8", generateHomePage());
+    private static final StaticPage COMPRESS_PAGE =
+        StaticPage.of("text/html; charset=UTF-8", generateCompressPage());
+    private static final StaticPage DECOMPRESS_PAGE =
+        StaticPage.of("text/html; charset=UTF-8", generateDecompressPage());
     
     public static void main(String[] args) throws IOException {
         // Get network IP address for mobile access
         networkIP = getNetworkIP();
         
+        // Compression results are kept here until downloaded or expired
+        resultStore = new ResultStore(Paths.get(ServerConfig.RESULT_DIR),
+            ServerConfig.RESULT_TTL_SECONDS * 1000, ServerConfig.RESULT_MEMORY_BYTES);
+        jobManager = new JobManager(resultStore, ServerConfig.JOB_THREADS,
+            ServerConfig.JOB_QUEUE_CAPACITY, ServerConfig.RESULT_TTL_SECONDS * 1000);
+        scratchStorage = new ScratchStorage(Paths.get(ServerConfig.SCRATCH_DIR),
+            ServerConfig.SCRATCH_MEMORY_THRESHOLD, ServerConfig.SCRATCH_POOL_BYTES,
+            ServerConfig.SCRATCH_DISK_QUOTA);
+        uploadManager = new UploadManager(Paths.get(ServerConfig.UPLOAD_DIR), resultStore,
+            ServerConfig.UPLOAD_MAX_BYTES, ServerConfig.RESULT_TTL_SECONDS * 1000,
+            ServerConfig.UPLOAD_THREADS);
+        
+        if (!ServerConfig.ACCESS_LOG.isEmpty()) {
+            accessLog = new AccessLog(Paths.get(ServerConfig.ACCESS_LOG), ServerConfig.ACCESS_LOG_BUFFER,
+                ServerConfig.ACCESS_LOG_MAX_BYTES, ServerConfig.ACCESS_LOG_FILES);
+            Runtime.getRuntime().addShutdownHook(new Thread(accessLog::close, "access-log-shutdown"));
+        }
+        
         // Bind to all network interfaces (0.0.0.0) to allow mobile access
-        HttpServer server = HttpServer.create(new InetSocketAddress("0.0.0.0", PORT), 0);
+        HttpServer server = NioHttpServer.forEngine(ServerConfig.ENGINE, new InetSocketAddress("0.0.0.0", PORT));
         
         // Serve pages
-        server.createContext("/", new HomePageHandler());
-        server.createContext("/compress", new CompressPageHandler());
-        server.createContext("/decompress", new DecompressPageHandler());
-        server.createContext("/api/compress", new CompressAPIHandler());
-        server.createContext("/api/decompress", new DecompressAPIHandler());
+        addContext(server, "/", new HomePageHandler());
+        addContext(server, "/compress", new CompressPageHandler());
+        addContext(server, "/decompress", new DecompressPageHandler());
+        addCompressionContext(server, "/api/compress", new CompressAPIHandler());
+        addCompressionContext(server, "/api/decompress", new DecompressAPIHandler());
+        addContext(server, "/api/download/", new DownloadHandler());
+        addCompressionContext(server, "/api/v2/compress", new CompressV2Handler());
+        addCompressionContext(server, "/api/v2/decompress", new DecompressV2Handler());
+        addCompressionContext(server, "/api/estimate", new EstimateHandler());
+        addCompressionContext(server, "/api/jobs", new JobsHandler());
+        addCompressionContext(server, "/api/uploads", new ChunkedUploadHandler());
+        addContext(server, "/metrics", new MetricsHandler());
         
-        server.setExecutor(Executors.newFixedThreadPool(10));
+        requestExecutor = RequestExecutors.create(ServerConfig.EXECUTOR_MODE, ServerConfig.THREADS);
+        server.setExecutor(admissionController.wrap(requestExecutor));
         server.start();
         
         System.out.println("========================================");
@@ -43,6 +108,9 @@ public class JavaWebServer {
         System.out.println("========================================");
         System.out.println("Server started on http://localhost:" + PORT);
         System.out.println("Open your browser: http://localhost:" + PORT);
+        String executorMode = RequestExecutors.effectiveMode(ServerConfig.EXECUTOR_MODE);
+        System.out.println("Engine: " + ServerConfig.ENGINE + ", executor: " + executorMode
+            + ("virtual".equals(executorMode) ? "" : " (" + ServerConfig.THREADS + " threads)"));
         if (!networkIP.equals("localhost")) {
             System.out.println("");
             System.out.println("📱 MOBILE ACCESS:");
@@ -62,6 +130,35 @@ public class JavaWebServer {
         System.out.println("Press Ctrl+C to stop the server");
     }
     
+    // Registers a handler together with the filters shared by every context
+    private static HttpContext addContext(HttpServer server, String path, HttpHandler handler) {
+        HttpContext context = server.createContext(path, handler);
+        context.getFilters().add(Metrics.requestFilter(path));
+        if (accessLog != null) {
+            context.getFilters().add(accessLog);
+        }
+        context.getFilters().add(rateLimiter);
+        context.getFilters().add(admissionController);
+        context.getFilters().add(compressionFilter);
+        return context;
+    }
+    
+    // Compression endpoints also pass through the fair scheduler once they are admitted, and
+    // wait there for a slot in their small or bulk lane
+    private static HttpContext addCompressionContext(HttpServer server, String path, HttpHandler handler) {
+        HttpContext context = addContext(server, path, handler);
+        context.getFilters().add(context.getFilters().indexOf(compressionFilter), scheduler);
+        return context;
+    }
+    
+    // Scheduled requests wait on a server thread; a platform pool must keep threads for small ones
+    private static int maxBulkRequests() {
+        if ("virtual".equals(RequestExecutors.effectiveMode(ServerConfig.EXECUTOR_MODE))) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(1, ServerConfig.THREADS - ServerConfig.SCHEDULER_SMALL_THREADS);
+    }
+    
     // Get network IP address for mobile access
     private static String getNetworkIP() {
         try {
@@ -95,8 +192,7 @@ public class JavaWebServer {
     static class HomePageHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String html = generateHomePage();
-            sendResponse(exchange, 200, "text/html; charset=UTF-8", html);
+            HOME_PAGE.serve(exchange);
         }
     }
     
@@ -104,8 +200,7 @@ public class JavaWebServer {
     static class CompressPageHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String html = generateCompressPage();
-            sendResponse(exchange, 200, "text/html; charset=UTF-8", html);
+            COMPRESS_PAGE.serve(exchange);
         }
     }
     
@@ -113,8 +208,7 @@ public class JavaWebServer {
     static class DecompressPageHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String html = generateDecompressPage();
-            sendResponse(exchange, 200, "text/html; charset=UTF-8", html);
+            DECOMPRESS_PAGE.serve(exchange);
         }
     }
     
@@ -124,48 +218,89 @@ public class JavaWebServer {
         public void handle(HttpExchange exchange) throws IOException {
             if ("POST".equals(exchange.getRequestMethod())) {
                 try {
-                    // Parse multipart form data
-                    InputStream requestBody = exchange.getRequestBody();
-                    byte[] data = requestBody.readAllBytes();
-                    
-                    // Simple multipart parsing
+                    // Stream multipart form data straight into the compressor
                     String boundary = extractBoundary(exchange);
                     if (boundary != null) {
-                        Map<String, byte[]> files = parseMultipart(data, boundary);
+                        MultipartParser parser = new MultipartParser(exchange.getRequestBody(), boundary);
                         
-                        if (!files.isEmpty()) {
-                            Map.Entry<String, byte[]> entry = files.entrySet().iterator().next();
-                            String filename = entry.getKey();
-                            byte[] fileData = entry.getValue();
-                            
-                            // Save to temp file
-                            File tempFile = File.createTempFile("compress_", "_" + filename);
-                            Files.write(tempFile.toPath(), fileData);
-                            
-                            // Compress
-                            String compressedPath = tempFile.getAbsolutePath() + ".gz";
-                            CompressionResult result = FileCompressor.compressFile(
-                                tempFile.getAbsolutePath(), compressedPath);
-                            
+                        // Format, level and strategy come from the query or from the form's
+                        // selectors, which precede the file
+                        String codecName = queryParam(exchange, "codec");
+                        String level = queryParam(exchange, "level");
+                        String strategy = queryParam(exchange, "strategy");
+                        MultipartParser.Part part;
+                        while ((part = parser.next()) != null && part.getFilename() == null) {
+                            String field = part.getName();
+                            if ("codec".equals(field)) {
+                                codecName = readFormField(part);
+                            } else if ("level".equals(field)) {
+                                level = readFormField(part);
+                            } else if ("strategy".equals(field)) {
+                                strategy = readFormField(part);
+                            }
+                        }
+                        Codec codec = selectCodec(codecName);
+                        if (codec == null) {
+                            String errorHtml = generateErrorPage("Unknown compression format: " + codecName);
+                            sendResponse(exchange, 400, "text/html; charset=UTF-8", errorHtml);
+                            return;
+                        }
+                        CompressionSettings settings;
+                        try {
+                            settings = selectSettings(level, strategy);
+                        } catch (IllegalArgumentException e) {
+                            sendResponse(exchange, 400, "text/html; charset=UTF-8", generateErrorPage(e.getMessage()));
+                            return;
+                        }
+
+                        if (part != null) {
+                            String filename = part.getFilename();
+                            long contentLength = requestContentLength(exchange);
+
+                            String compressedFilename = filename + codec.getExtension();
+
+                            CompressionResult result;
+                            ResultStore.StoredResult stored = null;
+                            if (contentLength >= 0 && contentLength <= ServerConfig.IN_MEMORY_THRESHOLD) {
+                                // Small upload: look it up by content hash, compressing in memory on a miss
+                                byte[] upload = part.getInputStream().readAllBytes();
+                                String params = codec.getName() + ";" + settings;
+                                if (codec.storesFilename()) {
+                                    params += ";" + filename;
+                                }
+                                String key = ResultCache.key(upload, params);
+                                ResultCache.Entry entry = resultCache.getOrCompute(key, () -> {
+                                    ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                                        Math.max(512, upload.length / 2));
+                                    CompressionResult compressed = FileCompressor.compressStream(
+                                        new ByteArrayInputStream(upload), buffer, codec, settings, filename, null);
+                                    if (!compressed.isSuccess()) {
+                                        throw new IOException(compressed.getMessage());
+                                    }
+                                    return new ResultCache.Entry(compressed, buffer.toByteArray());
+                                });
+                                result = entry.getResult();
+                                stored = resultStore.storeBytes(entry.getData(),
+                                    compressedFilename, codec.getContentType());
+                            } else {
+                                // Large or unknown size: compress straight into the result store
+                                Path resultFile = resultStore.newFile(codec.getExtension());
+                                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(resultFile), 65536)) {
+                                    result = FileCompressor.compressStream(
+                                        part.getInputStream(), out, codec, settings, filename, null);
+                                }
+                                if (result.isSuccess()) {
+                                    stored = resultStore.storeFile(resultFile,
+                                        compressedFilename, codec.getContentType());
+                                } else {
+                                    Files.deleteIfExists(resultFile);
+                                }
+                            }
+
                             if (result.isSuccess()) {
-                                byte[] compressedData = Files.readAllBytes(Paths.get(compressedPath));
-                                
-                                // Generate HTML response with download link and statistics
-                                String html = generateCompressResultPage(
-                                    filename,
-                                    result.getOriginalSize(),
-                                    result.getCompressedSize(),
-                                    result.getCompressionRatio(),
-                                    compressedData,
-                                    filename + ".gz"
-                                );
-                                
-                                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-                                sendResponse(exchange, 200, "text/html; charset=UTF-8", html);
-                                
-                                // Cleanup
-                                tempFile.delete();
-                                new File(compressedPath).delete();
+                                // Stream the result page with download link and statistics
+                                sendCompressResultPage(exchange, filename, result,
+                                    stored.getDownloadUrl(), compressedFilename);
                                 return;
                             }
                         }
@@ -189,128 +324,96 @@ public class JavaWebServer {
         public void handle(HttpExchange exchange) throws IOException {
             if ("POST".equals(exchange.getRequestMethod())) {
                 try {
-                    InputStream requestBody = exchange.getRequestBody();
-                    byte[] data = requestBody.readAllBytes();
-                    
                     String boundary = extractBoundary(exchange);
                     if (boundary != null) {
-                        Map<String, byte[]> files = parseMultipart(data, boundary);
-                        
-                        if (!files.isEmpty()) {
-                            Map.Entry<String, byte[]> entry = files.entrySet().iterator().next();
-                            String filename = entry.getKey();
-                            byte[] fileData = entry.getValue();
-                            
-                            File tempFile = File.createTempFile("decompress_", "_" + filename);
-                            Files.write(tempFile.toPath(), fileData);
-                            
+                        MultipartParser.Part part = nextFilePart(
+                            new MultipartParser(exchange.getRequestBody(), boundary));
+
+                        if (part != null) {
+                            String filename = part.getFilename();
+
                             String outputFilename;
-                            String decompressedPath = tempFile.getAbsolutePath() + "_decompressed";
-                            
-                            CompressionResult result;
-                            long compressedSize = fileData.length;
-                            long decompressedSize = 0;
-                            byte[] decompressedData = null;
                             
                             // Determine file type and set output filename
                             String lowerFilename = filename.toLowerCase();
+                            Codec codec = Codecs.forFilename(filename);
                             if (lowerFilename.endsWith(".zip")) {
                                 outputFilename = filename.substring(0, filename.length() - 4) + "_extracted";
-                            } else if (lowerFilename.endsWith(".gz")) {
-                                outputFilename = filename.substring(0, filename.length() - 3);
+                            } else if (codec != null) {
+                                outputFilename = filename.substring(0, filename.length() - codec.getExtension().length());
                             } else {
                                 outputFilename = filename + "_decompressed";
                             }
                             
-                            if (lowerFilename.endsWith(".zip")) {
-                                String extractDir = tempFile.getParent() + File.separator + "extracted";
-                                boolean success = FileCompressor.decompressZip(
-                                    tempFile.getAbsolutePath(), extractDir);
-                                
-                                File extractDirFile = new File(extractDir);
-                                File[] extractedFiles = extractDirFile.listFiles();
+                            // Each request works in its own scratch area, deleted in the background afterwards
+                            try (ScratchStorage.Workspace workspace = scratchStorage.open()) {
+                                ScratchStorage.SpillBuffer upload = workspace.newBuffer();
+                                part.getInputStream().transferTo(upload);
+                                long compressedSize = upload.size();
                                 
-                                if (success && extractedFiles != null && extractedFiles.length > 0) {
-                                    // Get all extracted files
-                                    for (File extractedFile : extractedFiles) {
-                                        if (extractedFile.isFile()) {
-                                            decompressedData = Files.readAllBytes(extractedFile.toPath());
-                                            decompressedSize = decompressedData.length;
-                                            outputFilename = extractedFile.getName();
-                                            break; // Use first file for now
+                                if (lowerFilename.endsWith(".zip")) {
+                                    Path extractDir = workspace.newDirectory("extracted");
+                                    boolean success;
+                                    try (InputStream in = upload.openInputStream()) {
+                                        // Charged as it is written, so a zip bomb stops at the quota
+                                        success = FileCompressor.decompressZip(in, extractDir.toString(),
+                                            workspace::charging);
+                                    }
+                                    
+                                    File[] extractedFiles = extractDir.toFile().listFiles();
+                                    ResultStore.StoredResult stored = null;
+                                    if (success && extractedFiles != null) {
+                                        for (File extractedFile : extractedFiles) {
+                                            if (extractedFile.isFile()) {
+                                                outputFilename = extractedFile.getName();
+                                                stored = resultStore.storeFile(extractedFile.toPath(),
+                                                    outputFilename, "application/octet-stream");
+                                                break; // Use first file for now
+                                            }
                                         }
                                     }
                                     
-                                    if (decompressedData != null) {
-                                        String html = generateDecompressResultPage(
-                                            filename,
-                                            compressedSize,
-                                            decompressedSize,
-                                            outputFilename,
-                                            decompressedData
-                                        );
-                                        
-                                        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-                                        sendResponse(exchange, 200, "text/html; charset=UTF-8", html);
-                                        
-                                        deleteDirectory(extractDirFile);
-                                        tempFile.delete();
-                                        return;
+                                    if (stored != null) {
+                                        sendDecompressResultPage(exchange, filename, compressedSize,
+                                            stored.getSize(), outputFilename, stored.getDownloadUrl());
                                     } else {
-                                        String errorHtml = generateErrorPage("ZIP file extracted but no files found inside.");
-                                        sendResponse(exchange, 500, "text/html; charset=UTF-8", errorHtml);
-                                        deleteDirectory(extractDirFile);
-                                        tempFile.delete();
-                                        return;
-                                    }
-                                } else {
-                                    String errorMsg = success ? "ZIP file extracted but no files found." : "Failed to extract ZIP file.";
-                                    String errorHtml = generateErrorPage(errorMsg);
-                                    sendResponse(exchange, 500, "text/html; charset=UTF-8", errorHtml);
-                                    if (extractDirFile.exists()) {
-                                        deleteDirectory(extractDirFile);
+                                        String errorMsg = success ? "ZIP file extracted but no files found." : "Failed to extract ZIP file.";
+                                        sendResponse(exchange, 500, "text/html; charset=UTF-8", generateErrorPage(errorMsg));
                                     }
-                                    tempFile.delete();
                                     return;
                                 }
-                            } else {
-                                // GZIP decompression
-                                result = FileCompressor.decompressFile(
-                                    tempFile.getAbsolutePath(), decompressedPath);
                                 
-                                if (result.isSuccess()) {
-                                    File decompressedFile = new File(decompressedPath);
-                                    if (decompressedFile.exists()) {
-                                        decompressedData = Files.readAllBytes(Paths.get(decompressedPath));
-                                        decompressedSize = decompressedData.length;
-                                        
-                                        String html = generateDecompressResultPage(
-                                            filename,
-                                            compressedSize,
-                                            decompressedSize,
-                                            outputFilename,
-                                            decompressedData
-                                        );
-                                        
-                                        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-                                        sendResponse(exchange, 200, "text/html; charset=UTF-8", html);
-                                        
-                                        tempFile.delete();
-                                        decompressedFile.delete();
-                                        return;
-                                    } else {
-                                        String errorHtml = generateErrorPage("Decompression completed but output file not found.");
-                                        sendResponse(exchange, 500, "text/html; charset=UTF-8", errorHtml);
-                                        tempFile.delete();
-                                        return;
+                                if (codec == null) {
+                                    // Unknown extension: go by the data's signature, trying gzip otherwise
+                                    try (InputStream in = upload.openInputStream()) {
+                                        byte[] header = in.readNBytes(4);
+                                        codec = Codecs.detect(header, header.length);
+                                    }
+                                    if (codec == null) {
+                                        codec = Codecs.gzip();
                                     }
+                                }
+                                
+                                // Decompression straight into the result store
+                                Path decompressedPath = resultStore.newFile("");
+                                CompressionResult result;
+                                try (InputStream in = upload.openInputStream();
+                                     OutputStream out = new BufferedOutputStream(Files.newOutputStream(decompressedPath), 65536)) {
+                                    result = FileCompressor.decompressStream(in, out, codec);
+                                }
+                                
+                                if (result.isSuccess()) {
+                                    ResultStore.StoredResult stored = resultStore.storeFile(decompressedPath,
+                                        outputFilename, "application/octet-stream");
+                                    sendDecompressResultPage(exchange, filename, compressedSize,
+                                        stored.getSize(), outputFilename, stored.getDownloadUrl());
                                 } else {
                                     // Show actual error message from decompression
                                     String errorHtml = generateErrorPage("Decompression failed: " + result.getMessage());
                                     sendResponse(exchange, 500, "text/html; charset=UTF-8", errorHtml);
-                                    tempFile.delete();
-                                    return;
+                                    Files.deleteIfExists(decompressedPath);
                                 }
+                                return;
                             }
                         }
                     }
@@ -327,6 +430,478 @@ public class JavaWebServer {
         }
     }
     
+    // Compress API v2 - raw request body in, compressed bytes out (?codec=, default gzip;
+    // ?level=0-9|auto and ?strategy=), streamed with chunked encoding
+    static class CompressV2Handler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "text/plain", "Method not allowed");
+                return;
+            }
+            if (isMultipart(exchange)) {
+                sendResponse(exchange, 415, "text/plain",
+                    "Send the raw file as application/octet-stream; use /api/compress for form uploads");
+                return;
+            }
+            
+            String codecName = queryParam(exchange, "codec");
+            Codec codec = selectCodec(codecName);
+            if (codec == null) {
+                sendResponse(exchange, 400, "text/plain",
+                    "Unknown codec " + codecName + "; available: " + String.join(", ", Codecs.names()));
+                return;
+            }
+            CompressionSettings settings;
+            try {
+                settings = selectSettings(queryParam(exchange, "level"), queryParam(exchange, "strategy"));
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, "text/plain", e.getMessage());
+                return;
+            }
+            
+            exchange.getResponseHeaders().set("Content-Type", codec.getContentType());
+            exchange.sendResponseHeaders(200, 0);
+            // Errors after this point can only truncate the stream; FileCompressor logs them
+            try (OutputStream os = exchange.getResponseBody()) {
+                FileCompressor.compressStream(exchange.getRequestBody(), os, codec, settings,
+                    queryParam(exchange, "filename"), null);
+            }
+        }
+    }
+    
+    // Decompress API v2 - raw compressed body in (format from ?codec= or the data's signature),
+    // original bytes out, streamed with chunked encoding
+    static class DecompressV2Handler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "text/plain", "Method not allowed");
+                return;
+            }
+            if (isMultipart(exchange)) {
+                sendResponse(exchange, 415, "text/plain",
+                    "Send the raw compressed file as application/octet-stream; use /api/decompress for form uploads");
+                return;
+            }
+            
+            // Check the format's magic number while an error status can still be sent
+            BufferedInputStream body = new BufferedInputStream(exchange.getRequestBody(), 8192);
+            body.mark(4);
+            byte[] header = body.readNBytes(4);
+            body.reset();
+            String codecName = queryParam(exchange, "codec");
+            if (codecName == null || codecName.isEmpty()) {
+                codecName = null;
+            }
+            Codec codec = codecName == null ? Codecs.detect(header, header.length) : Codecs.forName(codecName);
+            if (codec == null || !codec.matches(header, header.length)) {
+                sendResponse(exchange, 400, "text/plain", codecName == null
+                    ? "Request body is not in a supported format (" + String.join(", ", Codecs.names()) + ")"
+                    : "Request body is not " + codecName + " data");
+                return;
+            }
+            
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, 0);
+            // Errors after this point can only truncate the stream; FileCompressor logs them
+            try (OutputStream os = exchange.getResponseBody()) {
+                FileCompressor.decompressStream(body, os, codec);
+            }
+        }
+    }
+    
+    // Estimate API - predicts the compression of an upload (multipart or raw body; ?codec=,
+    // ?level=, ?strategy= as for v2) from a sample of it, without compressing the rest
+    static class EstimateHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "text/plain", "Method not allowed");
+                return;
+            }
+            String codecName = queryParam(exchange, "codec");
+            Codec codec = selectCodec(codecName);
+            if (codec == null) {
+                sendResponse(exchange, 400, "application/json", "{\"error\":\"" + JobManager.Job.escape(
+                    "Unknown codec " + codecName + "; available: " + String.join(", ", Codecs.names())) + "\"}");
+                return;
+            }
+            CompressionSettings settings;
+            try {
+                settings = selectSettings(queryParam(exchange, "level"), queryParam(exchange, "strategy"));
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, "application/json",
+                    "{\"error\":\"" + JobManager.Job.escape(e.getMessage()) + "\"}");
+                return;
+            }
+            // Total upload size from ?size=, or from Content-Length for a raw body; -1 if unknown
+            long totalBytes = -1;
+            String size = queryParam(exchange, "size");
+            if (size != null && !size.isBlank()) {
+                try {
+                    totalBytes = Long.parseLong(size.trim());
+                } catch (NumberFormatException e) {
+                    totalBytes = -1;
+                }
+                if (totalBytes < 0) {
+                    sendResponse(exchange, 400, "application/json",
+                        "{\"error\":\"size must be a number of bytes\"}");
+                    return;
+                }
+            } else if (!isMultipart(exchange)) {
+                totalBytes = requestContentLength(exchange);
+            }
+            String filename = queryParam(exchange, "filename");
+            InputStream body = exchange.getRequestBody();
+            if (isMultipart(exchange)) {
+                String boundary = extractBoundary(exchange);
+                MultipartParser.Part part = boundary == null ? null
+                    : nextFilePart(new MultipartParser(body, boundary));
+                if (part == null) {
+                    sendResponse(exchange, 400, "application/json", "{\"error\":\"No file in upload\"}");
+                    return;
+                }
+                filename = part.getFilename();
+                body = part.getInputStream();
+            }
+            
+            // Only the sample is read and compressed; the rest is counted only if its size is unknown
+            byte[] sample = body.readNBytes(ServerConfig.TUNING_SAMPLE_BYTES);
+            if (totalBytes < 0) {
+                totalBytes = sample.length + body.transferTo(OutputStream.nullOutputStream());
+            } else {
+                totalBytes = Math.max(totalBytes, sample.length);
+                if (sample.length == ServerConfig.TUNING_SAMPLE_BYTES) {
+                    // The rest of the body is not read, so the connection cannot be reused
+                    exchange.getResponseHeaders().set("Connection", "close");
+                }
+            }
+            Compressibility.Estimate estimate = Compressibility.analyze(sample, sample.length);
+            CompressionResult result = FileCompressor.compressSample(sample, sample.length, codec, settings, filename);
+            if (!result.isSuccess()) {
+                sendResponse(exchange, 500, "application/json",
+                    "{\"error\":\"" + JobManager.Job.escape(result.getMessage()) + "\"}");
+                return;
+            }
+            long predictedBytes = sample.length == 0 ? result.getCompressedSize()
+                : Math.round((double) totalBytes * result.getCompressedSize() / sample.length);
+            
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"codec\":\"").append(codec.getName()).append('"');
+            json.append(",\"settings\":\"").append(settings).append('"');
+            json.append(",\"format\":").append(estimate.getFormat() == null ? "null"
+                : "\"" + estimate.getFormat() + "\"");
+            json.append(",\"entropyBitsPerByte\":").append(String.format(Locale.ROOT, "%.2f", estimate.getEntropy()));
+            json.append(",\"incompressible\":").append(estimate.isIncompressible());
+            json.append(",\"sampleBytes\":").append(sample.length);
+            json.append(",\"totalBytes\":").append(totalBytes);
+            json.append(",\"predictedBytes\":").append(predictedBytes);
+            json.append(",\"predictedRatio\":").append(String.format(Locale.ROOT, "%.2f",
+                totalBytes == 0 ? 0.0 : (1.0 - (double) predictedBytes / totalBytes) * 100));
+            json.append(",\"message\":\"").append(JobManager.Job.escape(result.getMessage())).append("\"}");
+            sendResponse(exchange, 200, "application/json", json.toString());
+        }
+    }
+    
+    // Jobs API - POST /api/jobs queues a compression, GET /api/jobs/{id} reports its progress
+    static class JobsHandler implements HttpHandler {
+        private static final String PREFIX = "/api/jobs/";
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            
+            if ("POST".equals(method) && (path.equals("/api/jobs") || path.equals(PREFIX))) {
+                submit(exchange);
+            } else if ("GET".equals(method) && path.startsWith(PREFIX) && path.length() > PREFIX.length()) {
+                JobManager.Job job = jobManager.get(path.substring(PREFIX.length()));
+                if (job == null) {
+                    sendResponse(exchange, 404, "application/json", "{\"error\":\"Unknown job\"}");
+                } else {
+                    sendResponse(exchange, 200, "application/json", job.toJson());
+                }
+            } else {
+                sendResponse(exchange, 405, "text/plain", "Method not allowed");
+            }
+        }
+        
+        // Spools the upload (multipart or raw body) to a scratch file and queues the job
+        private void submit(HttpExchange exchange) throws IOException {
+            CompressionSettings settings;
+            try {
+                settings = selectSettings(queryParam(exchange, "level"), queryParam(exchange, "strategy"));
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, "application/json",
+                    "{\"error\":\"" + JobManager.Job.escape(e.getMessage()) + "\"}");
+                return;
+            }
+            String filename = "upload";
+            InputStream body = exchange.getRequestBody();
+            if (isMultipart(exchange)) {
+                String boundary = extractBoundary(exchange);
+                MultipartParser.Part part = boundary == null ? null
+                    : nextFilePart(new MultipartParser(body, boundary));
+                if (part == null) {
+                    sendResponse(exchange, 400, "application/json", "{\"error\":\"No file in upload\"}");
+                    return;
+                }
+                filename = part.getFilename();
+                body = part.getInputStream();
+            } else {
+                String name = queryParam(exchange, "filename");
+                if (name != null && !name.isEmpty()) {
+                    filename = name;
+                }
+            }
+            
+            Path upload = Files.createTempFile("job_", ".upload");
+            try {
+                Files.copy(body, upload, StandardCopyOption.REPLACE_EXISTING);
+                JobManager.Job job = jobManager.submit(upload, filename, settings);
+                exchange.getResponseHeaders().set("Location", PREFIX + job.getId());
+                sendResponse(exchange, 202, "application/json", job.toJson());
+            } catch (RejectedExecutionException e) {
+                Files.deleteIfExists(upload);
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(ServerConfig.RETRY_AFTER_SECONDS));
+                sendResponse(exchange, 503, "application/json", "{\"error\":\"Job queue is full\"}");
+            } catch (IOException e) {
+                Files.deleteIfExists(upload);
+                throw e;
+            }
+        }
+    }
+    
+    // Chunked Upload Handler - resumable uploads: create, PATCH chunks at offsets, finalize
+    static class ChunkedUploadHandler implements HttpHandler {
+        private static final String PREFIX = "/api/uploads/";
+        private static final String FINALIZE = "/finalize";
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            
+            if (path.equals("/api/uploads") || path.equals(PREFIX)) {
+                if ("POST".equals(method)) {
+                    create(exchange);
+                } else {
+                    sendResponse(exchange, 405, "text/plain", "Method not allowed");
+                }
+                return;
+            }
+            
+            String id = path.substring(PREFIX.length());
+            boolean finalize = id.endsWith(FINALIZE);
+            if (finalize) {
+                id = id.substring(0, id.length() - FINALIZE.length());
+            }
+            UploadManager.Upload upload = uploadManager.get(id);
+            if (upload == null) {
+                sendResponse(exchange, 404, "application/json", "{\"error\":\"Unknown upload\"}");
+                return;
+            }
+            
+            try {
+                if (finalize && "POST".equals(method)) {
+                    ResultStore.StoredResult stored = uploadManager.finish(upload);
+                    sendResponse(exchange, 200, "application/json", "{\"id\":\"" + upload.getId()
+                        + "\",\"size\":" + upload.getSize() + ",\"compressedBytes\":" + stored.getSize()
+                        + ",\"downloadUrl\":\"" + stored.getDownloadUrl() + "\"}");
+                } else if (finalize) {
+                    sendResponse(exchange, 405, "text/plain", "Method not allowed");
+                } else if ("PATCH".equals(method)) {
+                    String offsetHeader = exchange.getRequestHeaders().getFirst("Upload-Offset");
+                    if (offsetHeader == null) {
+                        sendResponse(exchange, 400, "application/json", "{\"error\":\"Upload-Offset header is required\"}");
+                        return;
+                    }
+                    long offset = upload.write(Long.parseLong(offsetHeader.trim()), exchange.getRequestBody());
+                    exchange.getResponseHeaders().set("Upload-Offset", String.valueOf(offset));
+                    exchange.sendResponseHeaders(204, -1);
+                    exchange.close();
+                } else if ("GET".equals(method) || "HEAD".equals(method)) {
+                    // Clients resume from Upload-Offset after a dropped connection
+                    exchange.getResponseHeaders().set("Upload-Offset", String.valueOf(upload.getOffset()));
+                    exchange.getResponseHeaders().set("Upload-Length", String.valueOf(upload.getSize()));
+                    exchange.getResponseHeaders().set("Cache-Control", "no-store");
+                    if ("HEAD".equals(method)) {
+                        exchange.sendResponseHeaders(200, -1);
+                        exchange.close();
+                    } else {
+                        sendResponse(exchange, 200, "application/json", upload.toJson());
+                    }
+                } else if ("DELETE".equals(method)) {
+                    uploadManager.abort(id);
+                    exchange.sendResponseHeaders(204, -1);
+                    exchange.close();
+                } else {
+                    sendResponse(exchange, 405, "text/plain", "Method not allowed");
+                }
+            } catch (NumberFormatException e) {
+                sendResponse(exchange, 400, "application/json", "{\"error\":\"Invalid Upload-Offset\"}");
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, "application/json", "{\"error\":\"" + JobManager.Job.escape(String.valueOf(e.getMessage())) + "\"}");
+            } catch (IllegalStateException e) {
+                sendResponse(exchange, 409, "application/json", "{\"error\":\"" + JobManager.Job.escape(String.valueOf(e.getMessage())) + "\"}");
+            }
+        }
+        
+        private void create(HttpExchange exchange) throws IOException {
+            String filename = queryParam(exchange, "filename");
+            String size = queryParam(exchange, "size");
+            if (size == null) {
+                size = exchange.getRequestHeaders().getFirst("Upload-Length");
+            }
+            try {
+                UploadManager.Upload upload = uploadManager.create(
+                    filename != null && !filename.isEmpty() ? filename : "upload",
+                    size != null ? Long.parseLong(size.trim()) : -1);
+                exchange.getResponseHeaders().set("Location", PREFIX + upload.getId());
+                exchange.getResponseHeaders().set("Upload-Offset", "0");
+                sendResponse(exchange, 201, "application/json", upload.toJson());
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, "application/json",
+                    "{\"error\":\"size is required and must be between 0 and " + ServerConfig.UPLOAD_MAX_BYTES + "\"}");
+            }
+        }
+    }
+    
+    // Download Handler - streams a stored result by its opaque ID
+    static class DownloadHandler implements HttpHandler {
+        private static final String PREFIX = "/api/download/";
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                sendResponse(exchange, 405, "text/plain", "Method not allowed");
+                return;
+            }
+            
+            String path = exchange.getRequestURI().getPath();
+            String id = path.length() > PREFIX.length() ? path.substring(PREFIX.length()) : "";
+            ResultStore.StoredResult result = resultStore.get(id);
+            if (result == null) {
+                String errorHtml = generateErrorPage("This download has expired or does not exist.");
+                sendResponse(exchange, 404, "text/html; charset=UTF-8", errorHtml);
+                return;
+            }
+            
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", result.getContentType());
+            headers.set("Content-Disposition", contentDisposition(result.getFilename()));
+            headers.set("Cache-Control", "private, no-transform");
+            headers.set("Accept-Ranges", "bytes");
+            headers.set("ETag", result.getETag());
+            
+            // A Range is only honored while If-Range (if sent) still names this result
+            long size = result.getSize();
+            ByteRange range = null;
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ifRange == null || ifRange.trim().equals(result.getETag())) {
+                range = ByteRange.parse(exchange.getRequestHeaders().getFirst("Range"), size);
+            }
+            if (range == ByteRange.UNSATISFIABLE) {
+                headers.set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            
+            int status = 200;
+            long offset = 0;
+            long length = size;
+            if (range != null) {
+                status = 206;
+                offset = range.getFirst();
+                length = range.getLength();
+                headers.set("Content-Range", range.toContentRange(size));
+            }
+            
+            if ("HEAD".equals(method)) {
+                headers.set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+                return;
+            }
+            
+            exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (result.getData() != null) {
+                    os.write(result.getData(), (int) offset, (int) length);
+                } else {
+                    transferFile(result.getFile(), offset, length, os);
+                }
+            }
+        }
+    }
+    
+    // Metrics Handler - Prometheus text exposition of server metrics
+    static class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            StringBuilder out = new StringBuilder(8192);
+            Metrics.writePrometheus(out);
+            
+            out.append("# TYPE executor_queue_depth gauge\n");
+            Metrics.sample(out, "executor_queue_depth", admissionController.getQueueDepth());
+            if (requestExecutor instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor pool = (ThreadPoolExecutor) requestExecutor;
+                out.append("# TYPE executor_active_threads gauge\n");
+                Metrics.sample(out, "executor_active_threads", pool.getActiveCount());
+                out.append("# TYPE executor_pool_size gauge\n");
+                Metrics.sample(out, "executor_pool_size", pool.getPoolSize());
+            }
+            
+            out.append("# TYPE admission_admitted_total counter\n");
+            Metrics.sample(out, "admission_admitted_total", admissionController.getAdmitted());
+            out.append("# TYPE admission_queued_total counter\n");
+            Metrics.sample(out, "admission_queued_total", admissionController.getQueued());
+            out.append("# TYPE admission_in_flight_bytes gauge\n");
+            Metrics.sample(out, "admission_in_flight_bytes", admissionController.getInFlightBytes());
+            out.append("# TYPE admission_rejected_total counter\n");
+            Metrics.sample(out, "admission_rejected_total{reason=\"too_large\"}", admissionController.getRejectedTooLarge());
+            Metrics.sample(out, "admission_rejected_total{reason=\"over_budget\"}", admissionController.getRejectedOverBudget());
+            Metrics.sample(out, "admission_rejected_total{reason=\"queue_full\"}", admissionController.getRejectedQueueFull());
+            Metrics.sample(out, "admission_rejected_total{reason=\"shed_overflow\"}", admissionController.getRefused());
+            
+            out.append("# TYPE rate_limit_requests_total counter\n");
+            Metrics.sample(out, "rate_limit_requests_total{result=\"allowed\"}", rateLimiter.getAllowed());
+            Metrics.sample(out, "rate_limit_requests_total{result=\"limited_requests\"}", rateLimiter.getLimitedRequests());
+            Metrics.sample(out, "rate_limit_requests_total{result=\"limited_bytes\"}", rateLimiter.getLimitedBytes());
+            out.append("# TYPE rate_limit_clients gauge\n");
+            Metrics.sample(out, "rate_limit_clients", rateLimiter.getTrackedClients());
+            
+            scheduler.writePrometheus(out);
+            
+            if (accessLog != null) {
+                out.append("# TYPE access_log_records_total counter\n");
+                Metrics.sample(out, "access_log_records_total{result=\"written\"}", accessLog.getWritten());
+                Metrics.sample(out, "access_log_records_total{result=\"dropped\"}", accessLog.getDropped());
+            }
+            
+            out.append("# TYPE cache_requests_total counter\n");
+            Metrics.sample(out, "cache_requests_total{result=\"hit\"}", resultCache.getHits());
+            Metrics.sample(out, "cache_requests_total{result=\"miss\"}", resultCache.getMisses());
+            Metrics.sample(out, "cache_requests_total{result=\"coalesced\"}", resultCache.getCoalesced());
+            out.append("# TYPE cache_evictions_total counter\n");
+            Metrics.sample(out, "cache_evictions_total", resultCache.getEvictions());
+            out.append("# TYPE cache_entries gauge\n");
+            Metrics.sample(out, "cache_entries", resultCache.getEntryCount());
+            out.append("# TYPE cache_bytes gauge\n");
+            Metrics.sample(out, "cache_bytes", resultCache.getCurrentBytes());
+            
+            out.append("# TYPE scratch_disk_bytes gauge\n");
+            Metrics.sample(out, "scratch_disk_bytes", scratchStorage.getDiskUsed());
+            out.append("# TYPE scratch_pool_buffers gauge\n");
+            Metrics.sample(out, "scratch_pool_buffers", scratchStorage.getAllocatedChunks());
+            
+            sendResponse(exchange, 200, "text/plain; version=0.0.4; charset=UTF-8", out.toString());
+        }
+    }
+    
     // Upload Handler
     static class UploadHandler implements HttpHandler {
         @Override
@@ -540,6 +1115,14 @@ public class JavaWebServer {
                     input[type="file"]:active {
                         background: #e8e8e8;
                     }
+                    select {
+                        width: 100%;
+                        padding: 12px;
+                        border: 2px solid #667eea;
+                        border-radius: 10px;
+                        background: #f5f5f5;
+                        font-size: 16px;
+                    }
                     @media (max-width: 768px) {
                         input[type="file"] {
                             font-size: 18px;
@@ -641,6 +1224,32 @@ public class JavaWebServer {
                     </div>
                     <div class="card">
                         <form action="/api/compress" method="post" enctype="multipart/form-data" autocomplete="off">
+                            <div class="form-group">
+                                <label for="codec">Format:</label>
+                                <select id="codec" name="codec">
+                                    {{codecOptions}}
+                                </select>
+                            </div>
+                            <div class="form-group">
+                                <label for="level">Level:</label>
+                                <select id="level" name="level">
+                                    <option value="">Server default</option>
+                                    <option value="auto">Auto (tuned on a sample)</option>
+                                    <option value="1">1 (fastest)</option>
+                                    <option value="3">3</option>
+                                    <option value="6">6 (balanced)</option>
+                                    <option value="9">9 (smallest)</option>
+                                    <option value="0">0 (store only)</option>
+                                </select>
+                            </div>
+                            <div class="form-group">
+                                <label for="strategy">Strategy:</label>
+                                <select id="strategy" name="strategy">
+                                    <option value="">Default</option>
+                                    <option value="filtered">Filtered</option>
+                                    <option value="huffman_only">Huffman only</option>
+                                </select>
+                            </div>
                             <div class="form-group">
                                 <label for="file">Select File to Compress:</label>
                                 <input type="file" id="file" name="file" required autocomplete="off" accept="*/*">
@@ -673,7 +1282,7 @@ public class JavaWebServer {
                 </div>
             </body>
             </html>
-            """;
+            """.replace("{{codecOptions}}", codecOptions());
     }
     
     // Generate Decompress Page HTML
@@ -834,8 +1443,8 @@ public class JavaWebServer {
                     <div class="card">
                         <form action="/api/decompress" method="post" enctype="multipart/form-data" autocomplete="off">
                             <div class="form-group">
-                                <label for="file">Select Compressed File (.zip or .gz):</label>
-                                <input type="file" id="file" name="file" accept=".zip,.gz" required autocomplete="off">
+                                <label for="file">Select Compressed File ({{extensions}}):</label>
+                                <input type="file" id="file" name="file" accept="{{accept}}" required autocomplete="off">
                             </div>
                             <button type="submit">Decompress File</button>
                         </form>
@@ -843,24 +1452,35 @@ public class JavaWebServer {
                 </div>
             </body>
             </html>
-            """;
+            """
+            .replace("{{extensions}}", String.join(", ", codecExtensions()))
+            .replace("{{accept}}", String.join(",", codecExtensions()));
     }
     
-    // Generate compression result page with statistics
-    private static String generateCompressResultPage(String originalFilename, 
-            long originalSize, long compressedSize, double compressionRatio,
-            byte[] compressedData, String compressedFilename) {
-        
-        String originalSizeStr = formatFileSize(originalSize);
-        String compressedSizeStr = formatFileSize(compressedSize);
-        String spaceSaved = formatFileSize(originalSize - compressedSize);
-        String ratioStr = String.format("%.2f", compressionRatio);
-        
-        // Encode file data as base64 for download
-        String base64Data = java.util.Base64.getEncoder().encodeToString(compressedData);
-        
-        StringBuilder html = new StringBuilder();
-        html.append("""
+    // One <option> per registered codec for the compress page's format selector
+    private static String codecOptions() {
+        StringBuilder options = new StringBuilder();
+        for (Codec codec : Codecs.all()) {
+            if (options.length() > 0) {
+                options.append("\n                        ");
+            }
+            options.append("<option value=\"").append(codec.getName()).append("\">")
+                .append(codec.getName().toUpperCase()).append("</option>");
+        }
+        return options.toString();
+    }
+    
+    // File extensions the decompress page accepts, one per codec
+    private static List<String> codecExtensions() {
+        List<String> extensions = new ArrayList<>();
+        for (Codec codec : Codecs.all()) {
+            extensions.add(codec.getExtension());
+        }
+        return extensions;
+    }
+    
+    // Compression result page with statistics; values are streamed in by sendCompressResultPage
+    private static final HtmlTemplate COMPRESS_RESULT_PAGE = HtmlTemplate.compile("""
             <!DOCTYPE html>
             <html>
             <head>
@@ -978,37 +1598,47 @@ public class JavaWebServer {
                             <h3 style="margin-top: 0;">Compression Statistics</h3>
                             <div class="stat-item">
                                 <span class="stat-label">Original File:</span>
-                                <span class="stat-value">""");
-        html.append(originalFilename);
-        html.append("</span></div><div class=\"stat-item\"><span class=\"stat-label\">Original Size:</span><span class=\"stat-value\">");
-        html.append(originalSizeStr);
-        html.append("</span></div><div class=\"stat-item\"><span class=\"stat-label\">Compressed Size:</span><span class=\"stat-value\">");
-        html.append(compressedSizeStr);
-        html.append("</span></div><div class=\"stat-item\"><span class=\"stat-label\">Space Saved:</span><span class=\"stat-value\">");
-        html.append(spaceSaved);
-        html.append("</span></div><div class=\"compression-ratio\">Compression Ratio: ");
-        html.append(ratioStr);
-        html.append("%</div></div><a href=\"data:application/gzip;base64,");
-        html.append(base64Data);
-        html.append("\" download=\"");
-        html.append(compressedFilename);
-        html.append("\" class=\"download-button\">⬇️ Download Compressed File</a></div></div></body></html>");
-        return html.toString();
+                                <span class="stat-value">{{originalFilename}}</span>
+                            </div>
+                            <div class="stat-item">
+                                <span class="stat-label">Original Size:</span>
+                                <span class="stat-value">{{originalSize}}</span>
+                            </div>
+                            <div class="stat-item">
+                                <span class="stat-label">Compressed Size:</span>
+                                <span class="stat-value">{{compressedSize}}</span>
+                            </div>
+                            <div class="stat-item">
+                                <span class="stat-label">Space Saved:</span>
+                                <span class="stat-value">{{spaceSaved}}</span>
+                            </div>
+                            <div class="compression-ratio">Compression Ratio: {{ratio}}%</div>
+                        </div>
+                        <a href="{{downloadUrl}}" download="{{compressedFilename}}" class="download-button">⬇️ Download Compressed File</a>
+                    </div>
+                </div>
+            </body>
+            </html>
+            """);
+    
+    private static void sendCompressResultPage(HttpExchange exchange, String originalFilename,
+            CompressionResult result, String downloadUrl, String compressedFilename) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        // Chunked, so the first fragment is on the wire before the values are encoded
+        exchange.sendResponseHeaders(200, 0);
+        try (HtmlTemplate.Renderer page = COMPRESS_RESULT_PAGE.render(exchange.getResponseBody())) {
+            page.text(originalFilename)
+                .fileSize(result.getOriginalSize())
+                .fileSize(result.getCompressedSize())
+                .fileSize(result.getOriginalSize() - result.getCompressedSize())
+                .decimal(result.getCompressionRatio(), 2)
+                .text(downloadUrl)
+                .text(compressedFilename);
+        }
     }
     
-    // Generate decompress result page
-    private static String generateDecompressResultPage(String compressedFilename,
-            long compressedSize, long decompressedSize, String outputFilename,
-            byte[] decompressedData) {
-        
-        String compressedSizeStr = formatFileSize(compressedSize);
-        String decompressedSizeStr = formatFileSize(decompressedSize);
-        
-        // Encode file data as base64 for download
-        String base64Data = java.util.Base64.getEncoder().encodeToString(decompressedData);
-        
-        StringBuilder html = new StringBuilder();
-        html.append("""
+    // Decompression result page; values are streamed in by sendDecompressResultPage
+    private static final HtmlTemplate DECOMPRESS_RESULT_PAGE = HtmlTemplate.compile("""
             <!DOCTYPE html>
             <html>
             <head>
@@ -1116,23 +1746,44 @@ public class JavaWebServer {
                             <h3 style="margin-top: 0;">Decompression Statistics</h3>
                             <div class="stat-item">
                                 <span class="stat-label">Compressed File:</span>
-                                <span class="stat-value">""");
-        html.append(compressedFilename);
-        html.append("</span></div><div class=\"stat-item\"><span class=\"stat-label\">Compressed Size:</span><span class=\"stat-value\">");
-        html.append(compressedSizeStr);
-        html.append("</span></div><div class=\"stat-item\"><span class=\"stat-label\">Decompressed Size:</span><span class=\"stat-value\">");
-        html.append(decompressedSizeStr);
-        html.append("</span></div><div class=\"stat-item\"><span class=\"stat-label\">Output File:</span><span class=\"stat-value\">");
-        html.append(outputFilename);
-        html.append("</span></div></div><a href=\"data:application/octet-stream;base64,");
-        html.append(base64Data);
-        html.append("\" download=\"");
-        html.append(outputFilename);
-        html.append("\" class=\"download-button\">⬇️ Download Decompressed File</a></div></div></body></html>");
-        return html.toString();
+                                <span class="stat-value">{{compressedFilename}}</span>
+                            </div>
+                            <div class="stat-item">
+                                <span class="stat-label">Compressed Size:</span>
+                                <span class="stat-value">{{compressedSize}}</span>
+                            </div>
+                            <div class="stat-item">
+                                <span class="stat-label">Decompressed Size:</span>
+                                <span class="stat-value">{{decompressedSize}}</span>
+                            </div>
+                            <div class="stat-item">
+                                <span class="stat-label">Output File:</span>
+                                <span class="stat-value">{{outputFilename}}</span>
+                            </div>
+                        </div>
+                        <a href="{{downloadUrl}}" download="{{outputFilename}}" class="download-button">⬇️ Download Decompressed File</a>
+                    </div>
+                </div>
+            </body>
+            </html>
+            """);
+    
+    private static void sendDecompressResultPage(HttpExchange exchange, String compressedFilename,
+            long compressedSize, long decompressedSize, String outputFilename,
+            String downloadUrl) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (HtmlTemplate.Renderer page = DECOMPRESS_RESULT_PAGE.render(exchange.getResponseBody())) {
+            page.text(compressedFilename)
+                .fileSize(compressedSize)
+                .fileSize(decompressedSize)
+                .text(outputFilename)
+                .text(downloadUrl)
+                .text(outputFilename);
+        }
     }
     
-    // Generate error page
+    // Generate error page; the message is plain text and is escaped, as it may echo request values
     private static String generateErrorPage(String errorMessage) {
         StringBuilder html = new StringBuilder();
         html.append("""
@@ -1184,17 +1835,26 @@ public class JavaWebServer {
                     <div class="card">
                         <div class="error">
                             <strong>Error:</strong> """);
-        html.append(errorMessage);
+        html.append(escapeHtml(String.valueOf(errorMessage)));
         html.append("</div></div></div></body></html>");
         return html.toString();
     }
     
-    // Format file size
-    private static String formatFileSize(long bytes) {
-        if (bytes < 1024) return bytes + " B";
-        if (bytes < 1024 * 1024) return String.format("%.2f KB", bytes / 1024.0);
-        if (bytes < 1024 * 1024 * 1024) return String.format("%.2f MB", bytes / (1024.0 * 1024.0));
-        return String.format("%.2f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+    // Escapes text for HTML the way HtmlTemplate text is escaped
+    static String escapeHtml(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': escaped.append("&amp;"); break;
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '"': escaped.append("&quot;"); break;
+                case '\'': escaped.append("&#39;"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
     }
     
     // Helper methods
@@ -1206,88 +1866,81 @@ public class JavaWebServer {
         return null;
     }
     
-    private static Map<String, byte[]> parseMultipart(byte[] data, String boundary) throws IOException {
-        Map<String, byte[]> files = new HashMap<>();
-        byte[] boundaryBytes = boundary.getBytes("ISO-8859-1");
-        
-        // Find boundary positions
-        int start = 0;
-        while (true) {
-            int boundaryPos = indexOf(data, boundaryBytes, start);
-            if (boundaryPos == -1) break;
-            
-            // Find next boundary or end
-            int nextBoundary = indexOf(data, boundaryBytes, boundaryPos + boundaryBytes.length);
-            if (nextBoundary == -1) nextBoundary = data.length;
-            
-            // Extract part
-            byte[] part = new byte[nextBoundary - boundaryPos - boundaryBytes.length];
-            System.arraycopy(data, boundaryPos + boundaryBytes.length, part, 0, part.length);
-            
-            // Find headers (until \r\n\r\n)
-            int headerEnd = indexOf(part, "\r\n\r\n".getBytes("ISO-8859-1"), 0);
-            if (headerEnd > 0) {
-                // Extract headers as string
-                String headers = new String(part, 0, headerEnd, "ISO-8859-1");
-                
-                // Extract filename
-                if (headers.contains("filename=\"")) {
-                    int nameStart = headers.indexOf("filename=\"") + 10;
-                    int nameEnd = headers.indexOf("\"", nameStart);
-                    if (nameEnd > nameStart) {
-                        String filename = headers.substring(nameStart, nameEnd);
-                        
-                        // Extract file content (skip headers and \r\n\r\n)
-                        int contentStart = headerEnd + 4;
-                        int contentEnd = part.length;
-                        
-                        // Remove trailing \r\n if present
-                        if (contentEnd >= 2 && part[contentEnd - 2] == '\r' && part[contentEnd - 1] == '\n') {
-                            contentEnd -= 2;
-                        }
-                        
-                        byte[] fileData = new byte[contentEnd - contentStart];
-                        System.arraycopy(part, contentStart, fileData, 0, fileData.length);
-                        
-                        files.put(filename, fileData);
-                    }
-                }
-            }
-            
-            start = nextBoundary;
+    // Declared request body size, or -1 when unknown (e.g. chunked uploads)
+    private static long requestContentLength(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
         }
-        
-        return files;
     }
     
-    private static int indexOf(byte[] array, byte[] pattern, int start) {
-        for (int i = start; i <= array.length - pattern.length; i++) {
-            boolean match = true;
-            for (int j = 0; j < pattern.length; j++) {
-                if (array[i + j] != pattern[j]) {
-                    match = false;
-                    break;
-                }
+    private static boolean isMultipart(HttpExchange exchange) {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        return contentType != null && contentType.toLowerCase().startsWith("multipart/");
+    }
+    
+    // Returns the first part that carries an uploaded file, or null if there is none
+    private static MultipartParser.Part nextFilePart(MultipartParser parser) throws IOException {
+        MultipartParser.Part part;
+        while ((part = parser.next()) != null) {
+            if (part.getFilename() != null) {
+                return part;
             }
-            if (match) return i;
         }
-        return -1;
+        return null;
     }
     
-    private static void deleteDirectory(File directory) {
-        if (directory.exists()) {
-            File[] files = directory.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isDirectory()) {
-                        deleteDirectory(file);
-                    } else {
-                        file.delete();
-                    }
-                }
+    // Codec chosen by name, gzip when none is given, null when the name is unknown
+    private static Codec selectCodec(String name) {
+        return name == null || name.isEmpty() ? Codecs.gzip() : Codecs.forName(name);
+    }
+    
+    // Settings from the level and strategy parameters; the configured defaults when neither is given
+    private static CompressionSettings selectSettings(String level, String strategy) {
+        if ((level == null || level.isEmpty()) && (strategy == null || strategy.isEmpty())) {
+            return ServerConfig.COMPRESSION_SETTINGS;
+        }
+        return CompressionSettings.parse(level, strategy);
+    }
+    
+    // Value of a plain form field; only short values such as option names are expected
+    private static String readFormField(MultipartParser.Part part) throws IOException {
+        return new String(part.getInputStream().readNBytes(256), StandardCharsets.UTF_8).trim();
+    }
+    
+    // Copies a file region to the response with FileChannel.transferTo, no user-space buffer
+    private static void transferFile(Path file, long position, long count, OutputStream os) throws IOException {
+        // Zero-copy into the socket when the server engine supports it
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ZeroCopyOutput.transfer(channel, position, count, os);
+        }
+    }
+    
+    private static String queryParam(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            if (key.equals(name)) {
+                return eq < 0 ? "" : java.net.URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
             }
-            directory.delete();
         }
+        return null;
+    }
+    
+    private static String contentDisposition(String filename) {
+        // Plain ASCII fallback plus RFC 5987 encoded name for non-ASCII filenames
+        String ascii = filename.replaceAll("[^\\x20-\\x7E]", "_").replace("\\", "_").replace("\"", "_");
+        String encoded = java.net.URLEncoder.encode(filename, StandardCharsets.UTF_8).replace("+", "%20");
+        return "attachment; filename=\"" + ascii + "\"; filename*=UTF-8''" + encoded;
     }
     
     private static void sendResponse(HttpExchange exchange, int statusCode, 
@@ -0,0 +1,272 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs large compressions asynchronously on a bounded worker pool.
+ * Each job compresses a spooled upload into the ResultStore and reports progress
+ * while it runs, so clients can poll instead of holding a request open.
+ */
+public class JobManager {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    private final ResultStore resultStore;
+    private final long retentionMillis;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService cleaner;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * @param resultStore Where finished results are registered for download
+     * @param threads Number of worker threads
+     * @param queueCapacity Jobs allowed to wait for a worker
+     * @param retentionMillis How long finished jobs stay visible
+     */
+    public JobManager(ResultStore resultStore, int threads, int queueCapacity, long retentionMillis) {
+        this.resultStore = resultStore;
+        this.retentionMillis = retentionMillis;
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), r -> {
+                Thread t = new Thread(r, "compression-job-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+        // Finished jobs hold their result and download link until swept
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "job-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, retentionMillis / 4);
+        cleaner.scheduleAtFixedRate(this::purgeFinished, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a compression of an already spooled upload.
+     * The upload file is deleted once the job finishes.
+     *
+     * @param upload Spooled upload
+     * @param filename Original filename
+     * @param settings Deflate level and strategy, or automatic
+     * @return the queued job
+     * @throws RejectedExecutionException if the job queue is full
+     */
+    public Job submit(Path upload, String filename, CompressionSettings settings) throws IOException {
+        Job job = new Job(newId(), filename, Files.size(upload));
+        jobs.put(job.getId(), job);
+        try {
+            workers.execute(() -> run(job, upload, settings));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        return job;
+    }
+
+    public Job get(String id) {
+        return jobs.get(id);
+    }
+
+    private void run(Job job, Path upload, CompressionSettings settings) {
+        job.start();
+        Path resultFile = null;
+        try {
+            resultFile = resultStore.newFile(".gz");
+            CompressionResult result;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(upload), 65536);
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(resultFile), 65536)) {
+                result = FileCompressor.compressStream(in, out, Codecs.gzip(), settings,
+                    job.getFilename(), job::progress);
+            }
+            if (result.isSuccess()) {
+                job.finish(result, resultStore.storeFile(resultFile,
+                    job.getFilename() + ".gz", "application/gzip"));
+            } else {
+                Files.deleteIfExists(resultFile);
+                job.fail(result.getMessage());
+            }
+        } catch (IOException | RuntimeException e) {
+            job.fail("Error: " + e.getMessage());
+            deleteQuietly(resultFile);
+        } finally {
+            deleteQuietly(upload);
+        }
+    }
+
+    /**
+     * Forgets jobs that finished more than the retention period ago
+     */
+    public void purgeFinished() {
+        long now = System.currentTimeMillis();
+        Iterator<Job> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            Job job = it.next();
+            if (job.isFinished() && now - job.finishedAt > retentionMillis) {
+                it.remove();
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Could not delete " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static String newId() {
+        byte[] bytes = new byte[12];
+        RANDOM.nextBytes(bytes);
+        StringBuilder id = new StringBuilder(24);
+        for (byte b : bytes) {
+            id.append(Character.forDigit((b >> 4) & 0xF, 16));
+            id.append(Character.forDigit(b & 0xF, 16));
+        }
+        return id.toString();
+    }
+
+    /**
+     * State and progress of one asynchronous compression
+     */
+    public static class Job {
+        private final String id;
+        private final String filename;
+        private final long totalBytes;
+        private volatile State state = State.QUEUED;
+        private volatile long bytesProcessed;
+        private volatile long startNanos;
+        private volatile long endNanos;
+        private volatile long finishedAt;
+        private volatile String message;
+        private volatile CompressionResult result;
+        private volatile ResultStore.StoredResult download;
+
+        Job(String id, String filename, long totalBytes) {
+            this.id = id;
+            this.filename = filename;
+            this.totalBytes = totalBytes;
+        }
+
+        void start() {
+            startNanos = System.nanoTime();
+            state = State.RUNNING;
+        }
+
+        void progress(long bytes) {
+            bytesProcessed = bytes;
+        }
+
+        void finish(CompressionResult result, ResultStore.StoredResult download) {
+            this.result = result;
+            this.download = download;
+            this.bytesProcessed = totalBytes;
+            end(State.DONE, result.getMessage());
+        }
+
+        void fail(String message) {
+            end(State.FAILED, message);
+        }
+
+        private void end(State state, String message) {
+            this.endNanos = System.nanoTime();
+            this.finishedAt = System.currentTimeMillis();
+            this.message = message;
+            this.state = state;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isFinished() {
+            return state == State.DONE || state == State.FAILED;
+        }
+
+        /**
+         * @return uncompressed bytes per second so far, or 0 before the job starts
+         */
+        public double getThroughput() {
+            if (startNanos == 0) {
+                return 0;
+            }
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            double seconds = (end - startNanos) / 1e9;
+            return seconds > 0 ? bytesProcessed / seconds : 0;
+        }
+
+        /**
+         * @return estimated seconds until completion, or -1 if unknown
+         */
+        public double getEtaSeconds() {
+            if (isFinished()) {
+                return 0;
+            }
+            double throughput = getThroughput();
+            return throughput > 0 ? (totalBytes - bytesProcessed) / throughput : -1;
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"id\":\"").append(id).append('"');
+            json.append(",\"filename\":\"").append(escape(filename)).append('"');
+            json.append(",\"state\":\"").append(state.name().toLowerCase()).append('"');
+            json.append(",\"totalBytes\":").append(totalBytes);
+            json.append(",\"bytesProcessed\":").append(bytesProcessed);
+            json.append(",\"throughputMBps\":").append(String.format(Locale.ROOT, "%.2f", getThroughput() / (1024.0 * 1024.0)));
+            json.append(",\"etaSeconds\":").append(String.format(Locale.ROOT, "%.1f", getEtaSeconds()));
+            if (message != null) {
+                json.append(",\"message\":\"").append(escape(message)).append('"');
+            }
+            if (state == State.DONE) {
+                json.append(",\"compressedBytes\":").append(result.getCompressedSize());
+                json.append(",\"compressionRatio\":").append(String.format(Locale.ROOT, "%.2f", result.getCompressionRatio()));
+                json.append(",\"downloadUrl\":\"").append(download.getDownloadUrl()).append('"');
+            }
+            json.append('}');
+            return json.toString();
+        }
+
+        static String escape(String value) {
+            StringBuilder escaped = new StringBuilder(value.length() + 8);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    escaped.append('\\').append(c);
+                } else if (c < 0x20) {
+                    escaped.append(String.format("\\u%04x", (int) c));
+                } else {
+                    escaped.append(c);
+                }
+            }
+            return escaped.toString();
+        }
+    }
+}
@@ -0,0 +1,651 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * LZ4 frame format codec in pure Java, for when speed matters more than ratio.
+ * Output is a standard LZ4 frame (readable by the lz4 command line tool) made of independent
+ * 64 KB blocks with a content checksum. Blocks are compressed with the greedy single-probe
+ * hash search of the reference LZ4 fast mode; a block that does not shrink is stored raw.
+ * The reader accepts any valid frame: every block size, linked blocks, block and content
+ * checksums, the content size field, skippable frames and several frames in a row.
+ */
+public class Lz4Codec implements Codec {
+    static final int MAGIC = 0x184D2204;
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    // Frame descriptor: version 01, independent blocks, content checksum; 64 KB blocks
+    private static final int FLG = 0x40 | 0x20 | 0x04;
+    private static final int BD = 4 << 4;
+
+    private static final int MIN_MATCH = 4;
+    // The last match must start 12 bytes before the end, and the last 5 bytes are literals
+    private static final int MF_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    // Misses before the search starts to skip ahead faster through incompressible data
+    private static final int SKIP_TRIGGER = 6;
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public String getExtension() {
+        return ".lz4";
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/x-lz4";
+    }
+
+    @Override
+    public boolean matches(byte[] header, int length) {
+        return length >= 4 && readInt(header, 0) == MAGIC;
+    }
+
+    @Override
+    public OutputStream compressor(OutputStream out, String filename) throws IOException {
+        return new FrameOutputStream(out);
+    }
+
+    @Override
+    public InputStream decompressor(InputStream in) throws IOException {
+        return new FrameInputStream(in);
+    }
+
+    /**
+     * Worst-case compressed size of a block of the given length
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses one block in the LZ4 block format
+     *
+     * @param src Input bytes
+     * @param srcOff Offset of the block in src
+     * @param length Block length
+     * @param dst Output, with room for maxCompressedLength(length) bytes from dstOff
+     * @param dstOff Where to write the compressed block
+     * @param table Hash table of 1 << 12 entries, overwritten
+     * @return the compressed length
+     */
+    static int compressBlock(byte[] src, int srcOff, int length, byte[] dst, int dstOff, int[] table) {
+        int end = srcOff + length;
+        int dp = dstOff;
+        int anchor = srcOff;
+
+        if (length >= MF_LIMIT + 1) {
+            Arrays.fill(table, -1);
+            int limit = end - MF_LIMIT;
+            int matchLimit = end - LAST_LITERALS;
+            int ip = srcOff;
+
+            search:
+            while (true) {
+                // Find a 4-byte match, stepping faster the longer nothing matches
+                int match;
+                int attempts = 1 << SKIP_TRIGGER;
+                while (true) {
+                    if (ip > limit) {
+                        break search;
+                    }
+                    int sequence = readInt(src, ip);
+                    int h = hash(sequence);
+                    match = table[h];
+                    table[h] = ip;
+                    if (match >= 0 && ip - match <= MAX_OFFSET && readInt(src, match) == sequence) {
+                        break;
+                    }
+                    ip += attempts++ >>> SKIP_TRIGGER;
+                }
+
+                // Extend backwards over the pending literals, then forwards
+                while (ip > anchor && match > srcOff && src[ip - 1] == src[match - 1]) {
+                    ip--;
+                    match--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[match + matchLength]) {
+                    matchLength++;
+                }
+
+                dp = writeSequence(src, anchor, ip - anchor, ip - match, matchLength, dst, dp);
+                ip += matchLength;
+                anchor = ip;
+                if (ip > limit) {
+                    break;
+                }
+                // Index a position inside the match so the next search can find it
+                table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+        }
+
+        // Remaining input as the final, literal-only sequence
+        int literals = end - anchor;
+        dp = writeLength(dst, dp, literals);
+        System.arraycopy(src, anchor, dst, dp, literals);
+        return dp + literals - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                     byte[] dst, int dp) {
+        int tokenPos = dp;
+        dp = writeLength(dst, dp, literals);
+        System.arraycopy(src, literalStart, dst, dp, literals);
+        dp += literals;
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+
+        int extra = matchLength - MIN_MATCH;
+        if (extra >= 15) {
+            dst[tokenPos] |= 15;
+            extra -= 15;
+            while (extra >= 255) {
+                dst[dp++] = (byte) 255;
+                extra -= 255;
+            }
+            dst[dp++] = (byte) extra;
+        } else {
+            dst[tokenPos] |= (byte) extra;
+        }
+        return dp;
+    }
+
+    // Writes a token carrying the literal count, followed by its extension bytes
+    private static int writeLength(byte[] dst, int dp, int literals) {
+        if (literals >= 15) {
+            dst[dp++] = (byte) (15 << 4);
+            int rest = literals - 15;
+            while (rest >= 255) {
+                dst[dp++] = (byte) 255;
+                rest -= 255;
+            }
+            dst[dp++] = (byte) rest;
+        } else {
+            dst[dp++] = (byte) (literals << 4);
+        }
+        return dp;
+    }
+
+    /**
+     * Decompresses one LZ4 block, rejecting anything that would read or write out of bounds
+     *
+     * @param src Compressed bytes
+     * @param srcOff Offset of the block in src
+     * @param length Compressed length
+     * @param dst Output buffer; bytes from windowStart to dstOff are history matches may refer to
+     * @param windowStart Lowest position a match may copy from
+     * @param dstOff Where to write the decompressed block
+     * @param dstEnd Limit of the output
+     * @return the decompressed length
+     */
+    static int decompressBlock(byte[] src, int srcOff, int length, byte[] dst, int windowStart,
+                               int dstOff, int dstEnd) throws IOException {
+        int sp = srcOff;
+        int srcEnd = srcOff + length;
+        int dp = dstOff;
+        try {
+            while (true) {
+                int token = src[sp++] & 0xff;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (literals > srcEnd - sp || literals > dstEnd - dp) {
+                    throw new IOException("Malformed LZ4 block");
+                }
+                System.arraycopy(src, sp, dst, dp, literals);
+                sp += literals;
+                dp += literals;
+                if (sp == srcEnd) {
+                    // The last sequence has literals only
+                    return dp - dstOff;
+                }
+
+                int offset = (src[sp] & 0xff) | (src[sp + 1] & 0xff) << 8;
+                sp += 2;
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int match = dp - offset;
+                if (offset == 0 || match < windowStart || matchLength > dstEnd - dp) {
+                    throw new IOException("Malformed LZ4 block");
+                }
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, match, dst, dp, matchLength);
+                    dp += matchLength;
+                } else {
+                    // Overlapping copy repeats the last offset bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[dp++] = dst[match + i];
+                    }
+                }
+                if (sp >= srcEnd) {
+                    throw new IOException("Malformed LZ4 block");
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed LZ4 block");
+        }
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * Writes one LZ4 frame: header, 64 KB blocks, end mark and content checksum
+     */
+    static class FrameOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[4 + maxCompressedLength(BLOCK_SIZE)];
+        private final int[] table = new int[1 << HASH_LOG];
+        private final XXHash32 contentHash = new XXHash32();
+        private int blockLength;
+        private boolean closed;
+
+        FrameOutputStream(OutputStream out) throws IOException {
+            this.out = out;
+            writeInt(out, MAGIC);
+            out.write(FLG);
+            out.write(BD);
+            out.write(descriptorChecksum(new byte[] {(byte) FLG, (byte) BD}, 2));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            block[blockLength++] = (byte) b;
+            if (blockLength == BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                int n = Math.min(len, BLOCK_SIZE - blockLength);
+                System.arraycopy(b, off, block, blockLength, n);
+                blockLength += n;
+                off += n;
+                len -= n;
+                if (blockLength == BLOCK_SIZE) {
+                    writeBlock();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (blockLength > 0) {
+                writeBlock();
+            }
+            out.flush();
+        }
+
+        /**
+         * Writes the last block, the end mark and the checksum, then closes the underlying stream
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (blockLength > 0) {
+                    writeBlock();
+                }
+                writeInt(out, 0);
+                writeInt(out, contentHash.getValue());
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            contentHash.update(block, 0, blockLength);
+            int size = compressBlock(block, 0, blockLength, compressed, 4, table);
+            if (size < blockLength) {
+                compressed[0] = (byte) size;
+                compressed[1] = (byte) (size >>> 8);
+                compressed[2] = (byte) (size >>> 16);
+                compressed[3] = (byte) (size >>> 24);
+                out.write(compressed, 0, 4 + size);
+            } else {
+                // Stored: the high bit of the size marks an uncompressed block
+                writeInt(out, blockLength | 0x80000000);
+                out.write(block, 0, blockLength);
+            }
+            blockLength = 0;
+        }
+    }
+
+    /**
+     * Reads LZ4 frames, one block at a time
+     */
+    static class FrameInputStream extends InputStream {
+        // Linked blocks may refer back this far into earlier blocks
+        private static final int WINDOW = 64 * 1024;
+
+        private final InputStream in;
+        private final byte[] header = new byte[15];
+        private byte[] compressed;
+        private byte[] buffer;
+        private int historyLength;
+        private int position;
+        private int limit;
+
+        private boolean independent;
+        private boolean blockChecksum;
+        private boolean contentChecksum;
+        private long contentSize;
+        private int blockMax;
+        private XXHash32 contentHash;
+        private long frameLength;
+        private boolean inFrame;
+        private boolean eof;
+
+        FrameInputStream(InputStream in) throws IOException {
+            this.in = in;
+            readFrameHeader(true);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        // Decodes the next block into the buffer, moving on to following frames as needed
+        private boolean fill() throws IOException {
+            while (!eof) {
+                if (!inFrame) {
+                    if (!readFrameHeader(false)) {
+                        eof = true;
+                        return false;
+                    }
+                }
+                int size = readInt();
+                if (size == 0) {
+                    endFrame();
+                    continue;
+                }
+                boolean stored = size < 0;
+                size &= 0x7fffffff;
+                if (size > blockMax) {
+                    throw new IOException("LZ4 block larger than the frame's block size");
+                }
+                readFully(compressed, 0, size);
+                if (blockChecksum) {
+                    int expected = readInt();
+                    XXHash32 hash = new XXHash32();
+                    hash.update(compressed, 0, size);
+                    if (hash.getValue() != expected) {
+                        throw new IOException("LZ4 block checksum mismatch");
+                    }
+                }
+
+                // Keep the last 64 KB of output in front of the block for linked blocks
+                if (independent || historyLength + blockMax > buffer.length) {
+                    int keep = independent ? 0 : Math.min(WINDOW, historyLength);
+                    System.arraycopy(buffer, historyLength - keep, buffer, 0, keep);
+                    historyLength = keep;
+                }
+                int length;
+                if (stored) {
+                    System.arraycopy(compressed, 0, buffer, historyLength, size);
+                    length = size;
+                } else {
+                    length = decompressBlock(compressed, 0, size, buffer,
+                        independent ? historyLength : 0, historyLength, historyLength + blockMax);
+                }
+                if (contentHash != null) {
+                    contentHash.update(buffer, historyLength, length);
+                }
+                frameLength += length;
+                position = historyLength;
+                limit = historyLength + length;
+                historyLength = limit;
+                if (length > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void endFrame() throws IOException {
+            if (contentChecksum && readInt() != contentHash.getValue()) {
+                throw new IOException("LZ4 content checksum mismatch");
+            }
+            if (contentSize >= 0 && contentSize != frameLength) {
+                throw new IOException("LZ4 content size mismatch");
+            }
+            inFrame = false;
+        }
+
+        // Reads a frame header, skipping skippable frames; false at a clean end of input
+        private boolean readFrameHeader(boolean first) throws IOException {
+            while (true) {
+                int n = in.readNBytes(header, 0, 4);
+                if (n == 0 && !first) {
+                    return false;
+                }
+                if (n < 4) {
+                    throw new EOFException("Unexpected end of LZ4 data");
+                }
+                int magic = Lz4Codec.readInt(header, 0);
+                if ((magic & 0xfffffff0) == 0x184D2A50) {
+                    in.skipNBytes(readInt() & 0xffffffffL);
+                    continue;
+                }
+                if (magic != MAGIC) {
+                    throw new IOException("Stream is not LZ4 frame data");
+                }
+
+                readFully(header, 0, 2);
+                int flg = header[0] & 0xff;
+                int bd = header[1] & 0xff;
+                if (flg >>> 6 != 1) {
+                    throw new IOException("Unsupported LZ4 frame version " + (flg >>> 6));
+                }
+                if ((flg & 0x01) != 0) {
+                    throw new IOException("LZ4 frames with a dictionary are not supported");
+                }
+                int descriptorLength = 2;
+                contentSize = -1;
+                if ((flg & 0x08) != 0) {
+                    readFully(header, 2, 8);
+                    contentSize = (Lz4Codec.readInt(header, 2) & 0xffffffffL)
+                        | (long) Lz4Codec.readInt(header, 6) << 32;
+                    descriptorLength += 8;
+                }
+                readFully(header, descriptorLength, 1);
+                if ((header[descriptorLength] & 0xff) != descriptorChecksum(header, descriptorLength)) {
+                    throw new IOException("LZ4 frame header checksum mismatch");
+                }
+                int blockSizeId = bd >>> 4 & 7;
+                if (blockSizeId < 4) {
+                    throw new IOException("Invalid LZ4 block size " + blockSizeId);
+                }
+
+                // 64 KB, 256 KB, 1 MB or 4 MB
+                blockMax = 1 << (2 * blockSizeId + 8);
+                independent = (flg & 0x20) != 0;
+                blockChecksum = (flg & 0x10) != 0;
+                contentChecksum = (flg & 0x04) != 0;
+                contentHash = contentChecksum ? new XXHash32() : null;
+                frameLength = 0;
+                int bufferSize = independent ? blockMax : WINDOW + blockMax;
+                if (buffer == null || buffer.length < bufferSize) {
+                    buffer = new byte[bufferSize];
+                }
+                if (compressed == null || compressed.length < blockMax) {
+                    compressed = new byte[blockMax];
+                }
+                historyLength = 0;
+                position = 0;
+                limit = 0;
+                inFrame = true;
+                return true;
+            }
+        }
+
+        private int readInt() throws IOException {
+            readFully(header, 0, 4);
+            return Lz4Codec.readInt(header, 0);
+        }
+
+        private void readFully(byte[] b, int off, int len) throws IOException {
+            if (in.readNBytes(b, off, len) != len) {
+                throw new EOFException("Unexpected end of LZ4 data");
+            }
+        }
+    }
+
+    private static int descriptorChecksum(byte[] descriptor, int length) {
+        XXHash32 hash = new XXHash32();
+        hash.update(descriptor, 0, length);
+        return (hash.getValue() >>> 8) & 0xff;
+    }
+
+    /**
+     * Streaming XXH32 with seed 0, the checksum of the LZ4 frame format
+     */
+    static class XXHash32 {
+        private static final int PRIME1 = 0x9E3779B1;
+        private static final int PRIME2 = 0x85EBCA77;
+        private static final int PRIME3 = 0xC2B2AE3D;
+        private static final int PRIME4 = 0x27D4EB2F;
+        private static final int PRIME5 = 0x165667B1;
+
+        private int v1 = PRIME1 + PRIME2;
+        private int v2 = PRIME2;
+        private int v3 = 0;
+        private int v4 = -PRIME1;
+        private final byte[] pending = new byte[16];
+        private int pendingLength;
+        private long totalLength;
+
+        void update(byte[] b, int off, int len) {
+            totalLength += len;
+            if (pendingLength + len < 16) {
+                System.arraycopy(b, off, pending, pendingLength, len);
+                pendingLength += len;
+                return;
+            }
+            int end = off + len;
+            if (pendingLength > 0) {
+                int n = 16 - pendingLength;
+                System.arraycopy(b, off, pending, pendingLength, n);
+                off += n;
+                stripe(pending, 0);
+                pendingLength = 0;
+            }
+            while (off + 16 <= end) {
+                stripe(b, off);
+                off += 16;
+            }
+            pendingLength = end - off;
+            System.arraycopy(b, off, pending, 0, pendingLength);
+        }
+
+        int getValue() {
+            int h;
+            if (totalLength >= 16) {
+                h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7)
+                    + Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+            } else {
+                h = PRIME5;
+            }
+            h += (int) totalLength;
+            int p = 0;
+            for (; p + 4 <= pendingLength; p += 4) {
+                h += readInt(pending, p) * PRIME3;
+                h = Integer.rotateLeft(h, 17) * PRIME4;
+            }
+            for (; p < pendingLength; p++) {
+                h += (pending[p] & 0xff) * PRIME5;
+                h = Integer.rotateLeft(h, 11) * PRIME1;
+            }
+            h ^= h >>> 15;
+            h *= PRIME2;
+            h ^= h >>> 13;
+            h *= PRIME3;
+            h ^= h >>> 16;
+            return h;
+        }
+
+        private void stripe(byte[] b, int off) {
+            v1 = round(v1, readInt(b, off));
+            v2 = round(v2, readInt(b, off + 4));
+            v3 = round(v3, readInt(b, off + 8));
+            v4 = round(v4, readInt(b, off + 12));
+        }
+
+        private static int round(int acc, int input) {
+            acc += input * PRIME2;
+            return Integer.rotateLeft(acc, 13) * PRIME1;
+        }
+    }
+}
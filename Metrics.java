@@ -0,0 +1,206 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide metrics registry, exported in Prometheus text format by the /metrics handler.
+ * All recording paths use LongAdder-based counters and histograms and take no locks.
+ */
+public class Metrics {
+    private static final double[] LATENCY_BUCKETS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120
+    };
+    private static final double[] THROUGHPUT_BUCKETS = {
+        1, 5, 10, 25, 50, 100, 200, 400, 800, 1600
+    };
+    private static final double[] RATIO_BUCKETS = {
+        0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 95, 99
+    };
+
+    private static final Map<String, RequestMetrics> requests = new ConcurrentSkipListMap<>();
+    private static final LongAdder activeRequests = new LongAdder();
+
+    private static final LongAdder compressions = new LongAdder();
+    private static final LongAdder compressionInputBytes = new LongAdder();
+    private static final LongAdder compressionOutputBytes = new LongAdder();
+    private static final LongAdder compressionNanos = new LongAdder();
+    private static final Histogram compressionThroughput = new Histogram(THROUGHPUT_BUCKETS);
+    private static final Histogram compressionRatio = new Histogram(RATIO_BUCKETS);
+
+    private Metrics() {
+    }
+
+    /**
+     * Creates the filter that records latency and bytes for one handler
+     *
+     * @param handler Label value, normally the context path
+     */
+    public static Filter requestFilter(String handler) {
+        RequestMetrics metrics = requests.computeIfAbsent(handler, h -> new RequestMetrics());
+        return new RequestFilter(metrics);
+    }
+
+    /**
+     * Records one finished compression
+     */
+    public static void recordCompression(long originalBytes, long compressedBytes, long nanos) {
+        compressions.increment();
+        compressionInputBytes.add(originalBytes);
+        compressionOutputBytes.add(compressedBytes);
+        compressionNanos.add(nanos);
+        if (nanos > 0) {
+            compressionThroughput.record((originalBytes / (1024.0 * 1024.0)) / (nanos / 1e9));
+        }
+        if (originalBytes > 0) {
+            compressionRatio.record((1.0 - (double) compressedBytes / originalBytes) * 100);
+        }
+        AccessLog.recordCompression(originalBytes, compressedBytes, nanos);
+    }
+
+    /**
+     * Appends all request and compression metrics in Prometheus text format
+     */
+    public static void writePrometheus(StringBuilder out) {
+        out.append("# TYPE http_request_duration_seconds histogram\n");
+        for (Map.Entry<String, RequestMetrics> entry : requests.entrySet()) {
+            entry.getValue().latency.writePrometheus(out, "http_request_duration_seconds",
+                handlerLabel(entry.getKey()));
+        }
+        out.append("# TYPE http_request_bytes_total counter\n");
+        for (Map.Entry<String, RequestMetrics> entry : requests.entrySet()) {
+            sample(out, "http_request_bytes_total{" + handlerLabel(entry.getKey()) + "}",
+                entry.getValue().bytesIn.sum());
+        }
+        out.append("# TYPE http_response_bytes_total counter\n");
+        for (Map.Entry<String, RequestMetrics> entry : requests.entrySet()) {
+            sample(out, "http_response_bytes_total{" + handlerLabel(entry.getKey()) + "}",
+                entry.getValue().bytesOut.sum());
+        }
+        out.append("# TYPE http_requests_active gauge\n");
+        sample(out, "http_requests_active", activeRequests.sum());
+
+        out.append("# TYPE compression_operations_total counter\n");
+        sample(out, "compression_operations_total", compressions.sum());
+        out.append("# TYPE compression_input_bytes_total counter\n");
+        sample(out, "compression_input_bytes_total", compressionInputBytes.sum());
+        out.append("# TYPE compression_output_bytes_total counter\n");
+        sample(out, "compression_output_bytes_total", compressionOutputBytes.sum());
+        out.append("# TYPE compression_seconds_total counter\n");
+        out.append("compression_seconds_total ").append(compressionNanos.sum() / 1e9).append('\n');
+        out.append("# TYPE compression_throughput_mb_per_second histogram\n");
+        compressionThroughput.writePrometheus(out, "compression_throughput_mb_per_second", "");
+        out.append("# TYPE compression_ratio_percent histogram\n");
+        compressionRatio.writePrometheus(out, "compression_ratio_percent", "");
+    }
+
+    /**
+     * Appends a single sample line (counter or gauge)
+     */
+    public static void sample(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String handlerLabel(String handler) {
+        return "handler=\"" + handler.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static class RequestMetrics {
+        final Histogram latency = new Histogram(LATENCY_BUCKETS);
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+    }
+
+    /**
+     * Times the exchange and counts request/response body bytes as they pass through
+     */
+    private static class RequestFilter extends Filter {
+        private final RequestMetrics metrics;
+
+        RequestFilter(RequestMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            long start = System.nanoTime();
+            activeRequests.increment();
+            exchange.setStreams(new CountingInput(exchange.getRequestBody(), metrics.bytesIn),
+                                new CountingOutput(exchange.getResponseBody(), metrics.bytesOut));
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                activeRequests.decrement();
+                metrics.latency.record((System.nanoTime() - start) / 1e9);
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Request latency and byte metrics";
+        }
+    }
+
+    static class CountingInput extends FilterInputStream {
+        private final LongAdder counter;
+
+        CountingInput(InputStream in, LongAdder counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                counter.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                counter.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    static class CountingOutput extends FilterOutputStream implements ZeroCopyOutput {
+        private final LongAdder counter;
+
+        CountingOutput(OutputStream out, LongAdder counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.add(len);
+        }
+
+        @Override
+        public long transferFrom(FileChannel source, long position, long count) throws IOException {
+            long sent = ZeroCopyOutput.transfer(source, position, count, out);
+            counter.add(sent);
+            return sent;
+        }
+    }
+}
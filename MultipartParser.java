@@ -0,0 +1,285 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental multipart/form-data parser.
+ * Reads the request stream through a fixed-size buffer and exposes each part
+ * as an InputStream, so memory use does not grow with the upload size.
+ */
+public class MultipartParser {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private final InputStream input;
+    private final byte[] delimiter;
+    private final BoundaryMatcher matcher;
+    private final byte[] buffer;
+    private int head;
+    private int tail;
+    private boolean eof;
+
+    // Position of the next delimiter in the buffer, or -1 if not seen yet
+    private int delimiterPos = -1;
+    // Index up to which the buffer has been searched without finding a delimiter
+    private int searchedTo;
+
+    private PartInputStream currentPart;
+    private boolean finished;
+
+    /**
+     * @param input Request body stream
+     * @param boundary Boundary including the leading "--" (as returned by extractBoundary)
+     */
+    public MultipartParser(InputStream input, String boundary) {
+        this.input = input;
+        this.delimiter = ("\r\n" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.matcher = new BoundaryMatcher(delimiter);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+
+        // Prime the buffer with CRLF so the first boundary matches the delimiter
+        // even when the body has no preamble
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        tail = 2;
+
+        // The preamble is treated as an anonymous part that is skipped on first next()
+        currentPart = new PartInputStream();
+    }
+
+    /**
+     * Advances to the next part, discarding any unread content of the current one.
+     *
+     * @return the next part, or null when the closing boundary has been reached
+     */
+    public Part next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (currentPart != null) {
+            currentPart.skipRemaining();
+            currentPart = null;
+        }
+
+        // After the delimiter comes either "--" (end) or CRLF (another part)
+        if (!ensure(2)) {
+            throw new IOException("Unexpected end of multipart stream");
+        }
+        if (buffer[head] == '-' && buffer[head + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        skipLine();
+
+        String headers = readHeaders();
+        currentPart = new PartInputStream();
+        return new Part(headers, currentPart);
+    }
+
+    // Makes sure at least n unread bytes are buffered; false on end of stream
+    private boolean ensure(int n) throws IOException {
+        while (tail - head < n) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Compacts the buffer and reads more data; false on end of stream
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            tail -= head;
+            if (delimiterPos >= 0) delimiterPos -= head;
+            searchedTo = Math.max(0, searchedTo - head);
+            head = 0;
+        }
+        int read = input.read(buffer, tail, buffer.length - tail);
+        if (read == -1) {
+            eof = true;
+            return false;
+        }
+        tail += read;
+        return true;
+    }
+
+    // Skips the remainder of the current line including its CRLF
+    private void skipLine() throws IOException {
+        while (true) {
+            for (int i = head; i < tail; i++) {
+                if (buffer[i] == '\n') {
+                    head = i + 1;
+                    return;
+                }
+            }
+            head = tail;
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart stream");
+            }
+        }
+    }
+
+    // Reads part headers up to and including the blank line
+    private String readHeaders() throws IOException {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream(256);
+        int matched = 0;
+        while (matched < 4) {
+            if (head == tail && !fill()) {
+                throw new IOException("Unexpected end of multipart headers");
+            }
+            byte b = buffer[head++];
+            headers.write(b);
+            if (headers.size() > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart headers too large");
+            }
+            if (b == '\r' && (matched == 0 || matched == 2)) {
+                matched++;
+            } else if (b == '\n' && (matched == 1 || matched == 3)) {
+                matched++;
+            } else {
+                matched = b == '\r' ? 1 : 0;
+            }
+        }
+        resetSearch();
+        // Browsers send non-ASCII filenames as raw UTF-8
+        return new String(headers.toByteArray(), 0, headers.size() - 4, StandardCharsets.UTF_8);
+    }
+
+    private void resetSearch() {
+        delimiterPos = -1;
+        searchedTo = head;
+    }
+
+    // Locates the delimiter in the unread portion of the buffer
+    private void findDelimiter() {
+        if (delimiterPos >= 0) {
+            return;
+        }
+        int from = Math.max(head, searchedTo);
+        int pos = matcher.indexOf(buffer, from, tail);
+        if (pos >= 0) {
+            delimiterPos = pos;
+        } else {
+            // A delimiter may still straddle the end of the buffer
+            searchedTo = Math.max(head, tail - delimiter.length + 1);
+        }
+    }
+
+    /**
+     * Content of a single part, ending at the next boundary
+     */
+    private class PartInputStream extends InputStream {
+        private boolean done;
+
+        PartInputStream() {
+            resetSearch();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                findDelimiter();
+                int available;
+                if (delimiterPos >= 0) {
+                    available = delimiterPos - head;
+                    if (available == 0) {
+                        // End of part: consume the delimiter
+                        head += delimiter.length;
+                        done = true;
+                        resetSearch();
+                        return -1;
+                    }
+                } else {
+                    // Hold back bytes that could be the start of a delimiter
+                    available = tail - head - (delimiter.length - 1);
+                }
+
+                if (available > 0) {
+                    int n = Math.min(available, len);
+                    System.arraycopy(buffer, head, b, off, n);
+                    head += n;
+                    return n;
+                }
+
+                if (!fill()) {
+                    throw new IOException("Unexpected end of multipart stream");
+                }
+            }
+        }
+
+        void skipRemaining() throws IOException {
+            byte[] scratch = new byte[8192];
+            while (read(scratch, 0, scratch.length) != -1) {
+                // discard
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            skipRemaining();
+        }
+    }
+
+    /**
+     * A single part of the multipart body
+     */
+    public static class Part {
+        private final String headers;
+        private final InputStream content;
+
+        Part(String headers, InputStream content) {
+            this.headers = headers;
+            this.content = content;
+        }
+
+        public String getHeaders() {
+            return headers;
+        }
+
+        public String getName() {
+            return dispositionParam("name=\"");
+        }
+
+        /**
+         * @return the uploaded filename, or null if this part is a plain form field
+         */
+        public String getFilename() {
+            return dispositionParam("filename=\"");
+        }
+
+        public InputStream getInputStream() {
+            return content;
+        }
+
+        private String dispositionParam(String key) {
+            int idx = headers.indexOf(key);
+            // "name=" also matches inside "filename=", so skip that occurrence
+            while (idx > 0 && key.startsWith("name") && headers.charAt(idx - 1) != ' '
+                    && headers.charAt(idx - 1) != ';') {
+                idx = headers.indexOf(key, idx + 1);
+            }
+            if (idx == -1) {
+                return null;
+            }
+            int start = idx + key.length();
+            int end = headers.indexOf('"', start);
+            return end > start ? headers.substring(start, end) : null;
+        }
+    }
+}
@@ -0,0 +1,1249 @@
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Small non-blocking HTTP/1.1 engine that runs the existing HttpHandler and Filter classes.
+ * One selector thread accepts connections and reads request headers into pooled direct
+ * buffers; complete requests are handed to the executor, where handlers see an ordinary
+ * blocking HttpExchange. Connections are kept alive and pipelined requests are served in
+ * order. File bodies sent through ZeroCopyOutput go out with FileChannel.transferTo.
+ */
+public class NioHttpServer extends HttpServer {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long IO_TIMEOUT_MILLIS = 60_000;
+    private static final long KEEP_ALIVE_MILLIS = 30_000;
+    private static final long MAX_DRAIN_BYTES = 1024 * 1024;
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    private final List<Context> contexts = new CopyOnWriteArrayList<>();
+    private final Queue<Connection> rearm = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
+    private ServerSocketChannel serverChannel;
+    private SelectionKey acceptKey;
+    private Selector selector;
+    private Thread selectorThread;
+    private volatile boolean running;
+    private Executor executor;
+    private ExecutorService defaultExecutor;
+
+    // While accepting fails (e.g. out of file descriptors), accepting resumes at this time
+    private long acceptPausedUntil;
+
+    private volatile long dateSecond;
+    private volatile String date;
+
+    /**
+     * Creates an unbound server; call bind() before start()
+     */
+    public NioHttpServer() {
+    }
+
+    public NioHttpServer(InetSocketAddress address, int backlog) throws IOException {
+        bind(address, backlog);
+    }
+
+    /**
+     * Creates the HTTP server for an engine name: "nio" selects NioHttpServer, anything else
+     * the JDK's built-in server. Both run the same handlers.
+     */
+    public static HttpServer forEngine(String engine, InetSocketAddress address) throws IOException {
+        if ("nio".equalsIgnoreCase(engine)) {
+            return new NioHttpServer(address, 0);
+        }
+        return HttpServer.create(address, 0);
+    }
+
+    @Override
+    public void bind(InetSocketAddress address, int backlog) throws IOException {
+        if (serverChannel != null) {
+            throw new IllegalStateException("Server is already bound");
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, backlog);
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
+        acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    public void start() {
+        if (serverChannel == null || running) {
+            throw new IllegalStateException("Server is not bound or already started");
+        }
+        if (executor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "nio-http-worker");
+                t.setDaemon(true);
+                return t;
+            });
+            executor = defaultExecutor;
+        }
+        running = true;
+        // Not a daemon, so the server keeps the JVM alive like the JDK dispatcher thread
+        selectorThread = new Thread(this::runSelector, "nio-http-selector");
+        selectorThread.start();
+    }
+
+    @Override
+    public void setExecutor(Executor executor) {
+        if (running) {
+            throw new IllegalStateException("Server already started");
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void stop(int delay) {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(Math.max(1, delay * 1000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (defaultExecutor != null) {
+            defaultExecutor.shutdown();
+        }
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        if (path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Context path must start with /");
+        }
+        for (Context context : contexts) {
+            if (context.getPath().equals(path)) {
+                throw new IllegalArgumentException("Context already exists: " + path);
+            }
+        }
+        Context context = new Context(path, handler);
+        contexts.add(context);
+        return context;
+    }
+
+    @Override
+    public HttpContext createContext(String path) {
+        return createContext(path, null);
+    }
+
+    @Override
+    public void removeContext(String path) {
+        if (!contexts.removeIf(context -> context.getPath().equals(path))) {
+            throw new IllegalArgumentException("No context for " + path);
+        }
+    }
+
+    @Override
+    public void removeContext(HttpContext context) {
+        if (!contexts.remove(context)) {
+            throw new IllegalArgumentException("Unknown context");
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Longest matching path prefix, as in the JDK server
+    private Context findContext(String path) {
+        Context best = null;
+        for (Context context : contexts) {
+            if (path.startsWith(context.getPath())
+                    && (best == null || context.getPath().length() > best.getPath().length())) {
+                best = context;
+            }
+        }
+        return best;
+    }
+
+    private void runSelector() {
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(acceptPausedUntil > 0 ? ACCEPT_BACKOFF_MILLIS : 1000);
+                if (acceptPausedUntil > 0 && System.currentTimeMillis() >= acceptPausedUntil) {
+                    acceptPausedUntil = 0;
+                    acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                }
+
+                Connection connection;
+                while ((connection = rearm.poll()) != null) {
+                    try {
+                        connection.arm();
+                    } catch (RuntimeException e) {
+                        connection.close();
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        Connection readable = (Connection) key.attachment();
+                        try {
+                            readable.onReadable();
+                        } catch (RuntimeException e) {
+                            System.err.println("Dropping connection: " + e);
+                            readable.close();
+                        }
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= 1000) {
+                    lastSweep = now;
+                    closeIdle(now);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Selector failed: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing server: " + e.getMessage());
+            }
+        }
+    }
+
+    // Failures are confined to the connection being accepted; the selector loop keeps running
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                // Usually out of file descriptors: stop accepting briefly so connections can close
+                System.err.println("Accept failed, pausing for " + ACCEPT_BACKOFF_MILLIS + " ms: " + e.getMessage());
+                acceptKey.interestOps(0);
+                acceptPausedUntil = System.currentTimeMillis() + ACCEPT_BACKOFF_MILLIS;
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                // e.g. the peer reset the connection straight away
+                System.err.println("Dropping new connection: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Already unusable
+                }
+                continue;
+            }
+            Connection connection = new Connection(channel);
+            try {
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                System.err.println("Dropping new connection: " + e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    // Closes keep-alive connections and half-sent requests that have gone quiet
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Connection
+                    && key.interestOps() == SelectionKey.OP_READ) {
+                Connection connection = (Connection) key.attachment();
+                if (now - connection.lastActivity > KEEP_ALIVE_MILLIS) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private String currentDate() {
+        long second = System.currentTimeMillis() / 1000;
+        if (second != dateSecond) {
+            date = DATE_FORMAT.format(ZonedDateTime.now(ZoneOffset.UTC));
+            dateSecond = second;
+        }
+        return date;
+    }
+
+    private void handle(Exchange exchange) {
+        try {
+            Context context = exchange.context;
+            if (context == null || context.getHandler() == null) {
+                byte[] body = "<h1>404 Not Found</h1>No context found for request".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/html");
+                exchange.sendResponseHeaders(404, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            } else {
+                // As with the JDK server, the exchange ends when the handler closes it, which
+                // may happen later on another thread
+                new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+            }
+        } catch (Throwable t) {
+            if (!(t instanceof IOException)) {
+                System.err.println("Handler failed: " + t);
+            }
+            exchange.abort();
+        }
+    }
+
+    private static String reasonPhrase(int code) {
+        switch (code) {
+            case 100: return "Continue";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 413: return "Payload Too Large";
+            case 415: return "Unsupported Media Type";
+            case 416: return "Range Not Satisfiable";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "";
+        }
+    }
+
+    /**
+     * One client connection. Owned by the selector thread while waiting for a request,
+     * and by exactly one worker thread while that request is being handled.
+     */
+    private class Connection {
+        final SocketChannel channel;
+        // Kept from accept time, since a closed channel no longer reports its addresses
+        final InetSocketAddress remoteAddress;
+        final InetSocketAddress localAddress;
+        SelectionKey key;
+        // Read mode: position is the next unread byte, limit the end of received data
+        final ByteBuffer in = acquireBuffer().flip();
+        // Write mode: response bytes not yet sent
+        final ByteBuffer out = acquireBuffer();
+        Selector waitSelector;
+        volatile long lastActivity = System.currentTimeMillis();
+        private volatile boolean closed;
+        // Set while a worker owns the connection; the buffers then go back to the pool only
+        // once the worker is done with them, even if the selector closes the connection first
+        private boolean dispatched;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.remoteAddress = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+            this.localAddress = (InetSocketAddress) channel.socket().getLocalSocketAddress();
+        }
+
+        // Selector thread: new bytes for a connection that is waiting for its next request
+        void onReadable() {
+            int n;
+            in.compact();
+            try {
+                n = channel.read(in);
+            } catch (IOException e) {
+                n = -1;
+            } finally {
+                in.flip();
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            tryDispatch();
+        }
+
+        // Selector thread: resume reading, serving any pipelined request already buffered
+        void arm() {
+            if (closed) {
+                return;
+            }
+            if (!tryDispatch() && !closed) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        // Worker thread: the exchange is over; keep the connection for another request or close it
+        void endExchange(boolean keepAlive) {
+            synchronized (this) {
+                dispatched = false;
+                if (closed) {
+                    releaseBuffers();
+                    return;
+                }
+            }
+            if (!keepAlive) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            rearm.add(this);
+            selector.wakeup();
+        }
+
+        private boolean tryDispatch() {
+            int end = headerEnd();
+            if (end < 0) {
+                if (in.limit() == in.capacity() && in.position() == 0) {
+                    reject(431);
+                }
+                return false;
+            }
+            Exchange exchange;
+            try {
+                exchange = parseRequest(end);
+            } catch (IllegalArgumentException | URISyntaxException e) {
+                reject(400);
+                return false;
+            } catch (UnsupportedOperationException e) {
+                reject(501);
+                return false;
+            }
+            key.interestOps(0);
+            synchronized (this) {
+                dispatched = true;
+            }
+            try {
+                executor.execute(() -> handle(exchange));
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    dispatched = false;
+                }
+                reject(503);
+                return false;
+            }
+            return true;
+        }
+
+        // Index just past the blank line ending the header block, or -1
+        private int headerEnd() {
+            for (int i = in.position(); i + 3 < in.limit(); i++) {
+                if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                    return i + 4;
+                }
+            }
+            return -1;
+        }
+
+        private Exchange parseRequest(int end) throws URISyntaxException {
+            byte[] raw = new byte[end - in.position()];
+            in.get(raw);
+            String[] lines = new String(raw, StandardCharsets.ISO_8859_1).split("\r\n");
+
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                throw new IllegalArgumentException("Bad request line");
+            }
+            Headers headers = new Headers();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("Bad header line");
+                }
+                headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+            }
+
+            String method = requestLine[0];
+            URI uri = new URI(requestLine[1]);
+            String protocol = requestLine[2];
+            // HTTP/1.1 keeps connections open unless told otherwise, HTTP/1.0 only on request
+            boolean keepAlive = protocol.equals("HTTP/1.1")
+                ? !connectionOption(headers, "close")
+                : connectionOption(headers, "keep-alive");
+
+            InputStream body;
+            String transferEncoding = headers.getFirst("Transfer-Encoding");
+            String contentLength = headers.getFirst("Content-Length");
+            if (transferEncoding != null) {
+                if (!transferEncoding.equalsIgnoreCase("chunked")) {
+                    throw new UnsupportedOperationException(transferEncoding);
+                }
+                body = new ChunkedInputStream(this);
+            } else if (contentLength != null) {
+                long length = Long.parseLong(contentLength.trim());
+                if (length < 0) {
+                    throw new IllegalArgumentException("Negative Content-Length");
+                }
+                body = new FixedInputStream(this, length);
+            } else {
+                body = new FixedInputStream(this, 0);
+            }
+
+            Context context = findContext(uri.getPath() != null ? uri.getPath() : "/");
+            return new Exchange(this, context, method, uri, protocol, headers, body, keepAlive,
+                "100-continue".equalsIgnoreCase(headers.getFirst("Expect")));
+        }
+
+        private boolean connectionOption(Headers headers, String option) {
+            List<String> values = headers.get("Connection");
+            if (values != null) {
+                for (String value : values) {
+                    for (String token : value.split(",")) {
+                        if (token.trim().equalsIgnoreCase(option)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        // Selector thread: best-effort error response for requests that never reach a handler
+        private void reject(int code) {
+            byte[] response = ("HTTP/1.1 " + code + " " + reasonPhrase(code)
+                + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            try {
+                channel.write(ByteBuffer.wrap(response));
+            } catch (IOException e) {
+                // Closing anyway
+            }
+            close();
+        }
+
+        // Worker thread: reads more request bytes, waiting if none are available yet
+        int fill() throws IOException {
+            in.compact();
+            try {
+                int n;
+                while ((n = channel.read(in)) == 0) {
+                    waitFor(SelectionKey.OP_READ);
+                }
+                if (n < 0) {
+                    throw new EOFException("Client closed the connection mid-request");
+                }
+                return n;
+            } finally {
+                in.flip();
+            }
+        }
+
+        int readByte() throws IOException {
+            if (!in.hasRemaining()) {
+                fill();
+            }
+            return in.get() & 0xFF;
+        }
+
+        // Worker thread: writes all buffers, waiting whenever the socket is full
+        void writeFully(ByteBuffer... buffers) throws IOException {
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                long n = channel.write(buffers);
+                if (n == 0) {
+                    waitFor(SelectionKey.OP_WRITE);
+                }
+                remaining -= n;
+            }
+        }
+
+        void transferFully(FileChannel source, long position, long count) throws IOException {
+            long end = position + count;
+            while (position < end) {
+                long sent = source.transferTo(position, end - position, channel);
+                if (sent == 0) {
+                    if (position >= source.size()) {
+                        throw new EOFException("File truncated at byte " + position);
+                    }
+                    waitFor(SelectionKey.OP_WRITE);
+                }
+                position += sent;
+            }
+        }
+
+        // Blocks the worker on a private selector; the main selector ignores the connection meanwhile
+        private void waitFor(int op) throws IOException {
+            if (waitSelector == null) {
+                waitSelector = Selector.open();
+            }
+            SelectionKey waitKey = channel.keyFor(waitSelector);
+            if (waitKey == null) {
+                channel.register(waitSelector, op);
+            } else {
+                waitKey.interestOps(op);
+            }
+            int ready = waitSelector.select(IO_TIMEOUT_MILLIS);
+            waitSelector.selectedKeys().clear();
+            if (ready == 0) {
+                throw new SocketTimeoutException("Timed out waiting for the client");
+            }
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+                if (waitSelector != null) {
+                    waitSelector.close();
+                }
+            } catch (IOException e) {
+                // Nothing left to do with a dead connection
+            }
+            if (!dispatched) {
+                releaseBuffers();
+            }
+        }
+
+        private void releaseBuffers() {
+            bufferPool.add(in);
+            bufferPool.add(out);
+        }
+    }
+
+    /**
+     * Request body with a known length; reads buffered bytes before going to the socket
+     */
+    private static class FixedInputStream extends InputStream {
+        private final Connection connection;
+        private long remaining;
+        Exchange exchange;
+
+        FixedInputStream(Connection connection, long length) {
+            this.connection = connection;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0 || exchange.completed) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            exchange.sendContinue();
+            ByteBuffer in = connection.in;
+            if (!in.hasRemaining()) {
+                connection.fill();
+            }
+            int n = (int) Math.min(Math.min(len, remaining), in.remaining());
+            in.get(b, off, n);
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, connection.in.remaining());
+        }
+    }
+
+    /**
+     * Request body in chunked transfer coding
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final Connection connection;
+        private long chunkRemaining;
+        private boolean eof;
+        Exchange exchange;
+
+        ChunkedInputStream(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof || exchange.completed) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            exchange.sendContinue();
+            if (chunkRemaining == 0) {
+                chunkRemaining = readChunkSize();
+                if (chunkRemaining == 0) {
+                    // Skip trailers up to the final empty line
+                    while (!readLine().isEmpty()) {
+                    }
+                    eof = true;
+                    return -1;
+                }
+            }
+            ByteBuffer in = connection.in;
+            if (!in.hasRemaining()) {
+                connection.fill();
+            }
+            int n = (int) Math.min(Math.min(len, chunkRemaining), in.remaining());
+            in.get(b, off, n);
+            chunkRemaining -= n;
+            if (chunkRemaining == 0) {
+                readLine();
+            }
+            return n;
+        }
+
+        private long readChunkSize() throws IOException {
+            String line = readLine();
+            int semicolon = line.indexOf(';');
+            try {
+                return Long.parseLong((semicolon >= 0 ? line.substring(0, semicolon) : line).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad chunk size: " + line);
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = connection.readByte()) != '\n') {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+                if (line.length() > 1024) {
+                    throw new IOException("Chunk header too long");
+                }
+            }
+            return line.toString();
+        }
+    }
+
+    /**
+     * Response body; framed by Content-Length, chunked coding, or nothing at all
+     */
+    private static class ResponseStream extends OutputStream implements ZeroCopyOutput {
+        static final int NONE = 0, FIXED = 1, CHUNKED = 2, UNTIL_CLOSE = 3;
+
+        private final Exchange exchange;
+        private final Connection connection;
+        private int mode = -1;
+        private long remaining;
+        // Bytes of the response head at the front of the buffer, before any body bytes
+        private int headLength;
+        private boolean closed;
+
+        ResponseStream(Exchange exchange) {
+            this.exchange = exchange;
+            this.connection = exchange.connection;
+        }
+
+        void begin(int mode, long length, byte[] head) throws IOException {
+            this.mode = mode;
+            this.remaining = length;
+            ByteBuffer out = connection.out;
+            if (head.length <= out.remaining()) {
+                out.put(head);
+                headLength = head.length;
+            } else {
+                connection.writeFully(ByteBuffer.wrap(head));
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            reserve(len);
+            ByteBuffer out = connection.out;
+            while (len > 0) {
+                if (!out.hasRemaining()) {
+                    flushBuffer();
+                }
+                int n = Math.min(len, out.remaining());
+                out.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public long transferFrom(FileChannel source, long position, long count) throws IOException {
+            reserve(count);
+            flushBuffer();
+            if (count == 0) {
+                return 0;
+            }
+            if (mode == CHUNKED) {
+                connection.writeFully(chunkHeader(count));
+            }
+            connection.transferFully(source, position, count);
+            if (mode == CHUNKED) {
+                connection.writeFully(ByteBuffer.wrap(CRLF));
+            }
+            return count;
+        }
+
+        private void reserve(long len) throws IOException {
+            if (closed || exchange.completed) {
+                throw new IOException("Response stream is closed");
+            }
+            if (mode < 0) {
+                throw new IOException("sendResponseHeaders() has not been called");
+            }
+            if (mode == NONE && len > 0) {
+                throw new IOException("This response has no body");
+            }
+            if (mode == FIXED) {
+                if (len > remaining) {
+                    throw new IOException("Too many bytes for the declared Content-Length");
+                }
+                remaining -= len;
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            ByteBuffer out = connection.out;
+            out.flip();
+            try {
+                int bodyLength = out.remaining() - headLength;
+                if (mode == CHUNKED && bodyLength > 0) {
+                    ByteBuffer head = out.duplicate();
+                    head.limit(headLength);
+                    ByteBuffer body = out.duplicate();
+                    body.position(headLength);
+                    connection.writeFully(head, chunkHeader(bodyLength), body, ByteBuffer.wrap(CRLF));
+                } else if (out.hasRemaining()) {
+                    connection.writeFully(out);
+                }
+            } finally {
+                out.clear();
+                headLength = 0;
+            }
+        }
+
+        private static ByteBuffer chunkHeader(long length) {
+            return ByteBuffer.wrap((Long.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed && mode >= 0) {
+                flushBuffer();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed || mode < 0) {
+                return;
+            }
+            closed = true;
+            try {
+                flushBuffer();
+                if (mode == CHUNKED) {
+                    connection.writeFully(ByteBuffer.wrap(LAST_CHUNK));
+                }
+            } catch (IOException e) {
+                exchange.abort();
+                throw e;
+            }
+            if (mode == FIXED && remaining > 0) {
+                // The client would wait forever for the missing bytes
+                exchange.abort();
+                throw new IOException("Response closed " + remaining + " bytes short of its Content-Length");
+            }
+            exchange.finish();
+        }
+    }
+
+    /**
+     * HttpExchange backed by a Connection
+     */
+    private class Exchange extends HttpExchange {
+        final Connection connection;
+        final Context context;
+        private final String method;
+        private final URI uri;
+        private final String protocol;
+        private final Headers requestHeaders;
+        private final Headers responseHeaders = new Headers();
+        private final InputStream rawIn;
+        private final ResponseStream rawOut;
+        private InputStream in;
+        private OutputStream out;
+        private Map<String, Object> attributes;
+        private boolean keepAlive;
+        private boolean expectContinue;
+        private boolean continueSent;
+        private int responseCode = -1;
+        volatile boolean completed;
+
+        Exchange(Connection connection, Context context, String method, URI uri, String protocol,
+                 Headers requestHeaders, InputStream body, boolean keepAlive, boolean expectContinue) {
+            this.connection = connection;
+            this.context = context;
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.requestHeaders = requestHeaders;
+            this.rawIn = body;
+            this.rawOut = new ResponseStream(this);
+            this.in = body;
+            this.out = rawOut;
+            this.keepAlive = keepAlive;
+            this.expectContinue = expectContinue;
+            if (body instanceof FixedInputStream) {
+                ((FixedInputStream) body).exchange = this;
+            } else {
+                ((ChunkedInputStream) body).exchange = this;
+            }
+        }
+
+        void sendContinue() throws IOException {
+            if (expectContinue) {
+                expectContinue = false;
+                if (responseCode < 0) {
+                    connection.writeFully(ByteBuffer.wrap(CONTINUE));
+                    continueSent = true;
+                }
+            }
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return uri;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return method;
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return context;
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return out;
+        }
+
+        @Override
+        public void sendResponseHeaders(int code, long length) throws IOException {
+            if (responseCode >= 0) {
+                throw new IOException("Response headers already sent");
+            }
+            responseCode = code;
+            if (expectContinue) {
+                // The client is still holding back the body; don't wait for it after the response
+                expectContinue = false;
+                keepAlive = keepAlive && continueSent;
+            }
+
+            int mode;
+            boolean noBody = code < 200 || code == 204 || code == 304;
+            if ("HEAD".equals(method) || noBody) {
+                mode = ResponseStream.NONE;
+                if (length > 0 && !noBody && !responseHeaders.containsKey("Content-Length")) {
+                    responseHeaders.set("Content-Length", String.valueOf(length));
+                }
+            } else if (length < 0) {
+                mode = ResponseStream.NONE;
+                responseHeaders.set("Content-Length", "0");
+            } else if (length == 0) {
+                if (protocol.equals("HTTP/1.1")) {
+                    mode = ResponseStream.CHUNKED;
+                    responseHeaders.set("Transfer-Encoding", "chunked");
+                } else {
+                    mode = ResponseStream.UNTIL_CLOSE;
+                    keepAlive = false;
+                }
+            } else {
+                mode = ResponseStream.FIXED;
+                responseHeaders.set("Content-Length", String.valueOf(length));
+            }
+
+            String connectionHeader = responseHeaders.getFirst("Connection");
+            if (connectionHeader != null && connectionHeader.equalsIgnoreCase("close")) {
+                keepAlive = false;
+            }
+            if (!keepAlive) {
+                responseHeaders.set("Connection", "close");
+            }
+            responseHeaders.set("Date", currentDate());
+
+            StringBuilder head = new StringBuilder(256);
+            head.append("HTTP/1.1 ").append(code).append(' ').append(reasonPhrase(code)).append("\r\n");
+            for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+                for (String value : header.getValue()) {
+                    head.append(header.getKey()).append(": ").append(value).append("\r\n");
+                }
+            }
+            head.append("\r\n");
+            rawOut.begin(mode, Math.max(length, 0), head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return connection.remoteAddress;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return connection.localAddress;
+        }
+
+        @Override
+        public String getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public synchronized Object getAttribute(String name) {
+            return attributes == null ? null : attributes.get(name);
+        }
+
+        @Override
+        public synchronized void setAttribute(String name, Object value) {
+            if (attributes == null) {
+                attributes = new ConcurrentHashMap<>();
+            }
+            if (value == null) {
+                attributes.remove(name);
+            } else {
+                attributes.put(name, value);
+            }
+        }
+
+        @Override
+        public void setStreams(InputStream in, OutputStream out) {
+            if (in != null) {
+                this.in = in;
+            }
+            if (out != null) {
+                this.out = out;
+            }
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            if (completed) {
+                return;
+            }
+            if (responseCode < 0) {
+                abort();
+                return;
+            }
+            try {
+                rawOut.close();
+            } catch (IOException e) {
+                abort();
+            }
+        }
+
+        // The response has been sent in full; get the connection ready for the next request
+        void finish() {
+            if (completed) {
+                return;
+            }
+            if (keepAlive) {
+                keepAlive = drainRequestBody();
+            }
+            completed = true;
+            connection.endExchange(keepAlive);
+        }
+
+        void abort() {
+            completed = true;
+            connection.endExchange(false);
+        }
+
+        // Skips whatever the handler left unread so the next request starts at the right byte
+        private boolean drainRequestBody() {
+            byte[] skip = new byte[8192];
+            long drained = 0;
+            try {
+                int n;
+                while ((n = rawIn.read(skip)) != -1) {
+                    drained += n;
+                    if (drained > MAX_DRAIN_BYTES) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Context registered with createContext
+     */
+    private class Context extends HttpContext {
+        private final String path;
+        private HttpHandler handler;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final List<Filter> filters = new CopyOnWriteArrayList<>();
+        private Authenticator authenticator;
+
+        Context(String path, HttpHandler handler) {
+            this.path = path;
+            this.handler = handler;
+        }
+
+        @Override
+        public HttpHandler getHandler() {
+            return handler;
+        }
+
+        @Override
+        public void setHandler(HttpHandler handler) {
+            if (this.handler != null) {
+                throw new IllegalArgumentException("Handler already set");
+            }
+            this.handler = handler;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public HttpServer getServer() {
+            return NioHttpServer.this;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public List<Filter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        public Authenticator setAuthenticator(Authenticator authenticator) {
+            Authenticator previous = this.authenticator;
+            this.authenticator = authenticator;
+            return previous;
+        }
+
+        @Override
+        public Authenticator getAuthenticator() {
+            return authenticator;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Gzip decompression that inflates blocked (BGZF-style) input on several cores.
+ * Each member written by BlockedGzipOutputStream states its total size in its header, so
+ * the reader can slice the input into members without inflating anything, hand each member
+ * to a ForkJoinPool task and write the results in order. Input that is not blocked, from the
+ * first member or from any later one on, is inflated sequentially with GZIPInputStream, so
+ * every gzip file can go through here.
+ */
+public class ParallelGunzip {
+    private static final int HEADER_SIZE = BlockedGzipOutputStream.HEADER_SIZE;
+    private static final int TRAILER_SIZE = BlockedGzipOutputStream.TRAILER_SIZE;
+    private static final int MAX_MEMBER_SIZE = BlockedGzipOutputStream.MAX_MEMBER_SIZE;
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private ParallelGunzip() {
+    }
+
+    /**
+     * Decompresses gzip data, in parallel where the input is blocked
+     *
+     * @param source Stream to read gzip data from (not closed)
+     * @param dest Stream to write the decompressed data to (not closed)
+     * @param pool Pool that inflates the members
+     * @return the number of decompressed bytes
+     * @throws ZipException if the input is not valid gzip data
+     */
+    public static long decompress(InputStream source, OutputStream dest, ForkJoinPool pool) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(source, HEADER_SIZE);
+        ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+        int maxInFlight = Math.max(2, pool.getParallelism() * 2);
+        byte[] header = new byte[HEADER_SIZE];
+        long total = 0;
+        long members = 0;
+
+        while (true) {
+            int n = in.readNBytes(header, 0, HEADER_SIZE);
+            if (n == 0 && members > 0) {
+                break;
+            }
+            if (n < HEADER_SIZE || !isBlockedHeader(header)) {
+                // Not blocked: write what is pending, then inflate the rest in sequence
+                while (!inFlight.isEmpty()) {
+                    total += write(inFlight.removeFirst(), dest);
+                }
+                in.unread(header, 0, n);
+                // Frees the inflater at once; the caller's stream stays open
+                try (GZIPInputStream gzip = new GZIPInputStream(new Codec.UnclosedInputStream(in), 65536)) {
+                    total += gzip.transferTo(dest);
+                }
+                break;
+            }
+
+            int size = ((header[16] & 0xff) | (header[17] & 0xff) << 8) + 1;
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw new ZipException("Invalid block size " + size);
+            }
+            byte[] member = new byte[size];
+            System.arraycopy(header, 0, member, 0, HEADER_SIZE);
+            if (in.readNBytes(member, HEADER_SIZE, size - HEADER_SIZE) != size - HEADER_SIZE) {
+                throw new EOFException("Unexpected end of blocked gzip input");
+            }
+            inFlight.addLast(pool.submit(() -> inflate(member)));
+            members++;
+
+            while (!inFlight.isEmpty() && (inFlight.peekFirst().isDone() || inFlight.size() >= maxInFlight)) {
+                total += write(inFlight.removeFirst(), dest);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            total += write(inFlight.removeFirst(), dest);
+        }
+        return total;
+    }
+
+    // gzip magic, deflate, only FEXTRA set, and a single 'BC' subfield holding the member size
+    private static boolean isBlockedHeader(byte[] h) {
+        return h[0] == 0x1f && h[1] == (byte) 0x8b && h[2] == 8 && h[3] == 4
+            && h[10] == 6 && h[11] == 0 && h[12] == 'B' && h[13] == 'C' && h[14] == 2 && h[15] == 0;
+    }
+
+    private static long write(ForkJoinTask<byte[]> task, OutputStream dest) throws IOException {
+        byte[] data;
+        try {
+            data = task.join();
+        } catch (RuntimeException e) {
+            // join() may rethrow a copy, so look for the original cause
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+            }
+            throw new IOException("Parallel decompression failed", e);
+        }
+        dest.write(data);
+        return data.length;
+    }
+
+    private static byte[] inflate(byte[] member) {
+        int size = member.length;
+        int trailer = size - TRAILER_SIZE;
+        long expectedCrc = readInt(member, trailer) & 0xffffffffL;
+        int expectedSize = readInt(member, trailer + 4);
+        if (expectedSize < 0 || expectedSize > MAX_MEMBER_SIZE) {
+            throw new UncheckedIOException(new ZipException("Invalid block length " + expectedSize));
+        }
+
+        Inflater inflater = INFLATERS.get();
+        try {
+            inflater.setInput(member, HEADER_SIZE, trailer - HEADER_SIZE);
+            byte[] output = new byte[expectedSize];
+            int length = 0;
+            while (!inflater.finished() && length < expectedSize) {
+                int n = inflater.inflate(output, length, expectedSize - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (!inflater.finished() && length == expectedSize) {
+                // Only the end of the deflate stream may remain, never more data
+                if (inflater.inflate(new byte[1]) != 0) {
+                    throw new ZipException("Blocked gzip member longer than its trailer states");
+                }
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(output, 0, length);
+            if (!inflater.finished() || length != expectedSize || crc.getValue() != expectedCrc) {
+                throw new ZipException("Corrupt blocked gzip member");
+            }
+            return output;
+        } catch (ZipException e) {
+            throw new UncheckedIOException(e);
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new ZipException("Invalid deflate data: " + e.getMessage()));
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+}
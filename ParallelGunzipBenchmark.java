@@ -0,0 +1,90 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Benchmark of ParallelGunzip on blocked gzip against sequential GZIPInputStream.
+ * Writes the sample file as plain and as blocked gzip, then inflates the blocked file with
+ * 1, 2, 4, ... threads up to the core count, reporting throughput and speedup and checking
+ * the CRC32 of every output.
+ * Usage: java ParallelGunzipBenchmark [sizeMB] [maxThreads]
+ */
+public class ParallelGunzipBenchmark {
+    public static void main(String[] args) throws Exception {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+            : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("========================================");
+        System.out.println("  Parallel Gunzip Benchmark");
+        System.out.println("  " + sizeMB + " MB input, up to " + maxThreads + " threads, "
+            + Runtime.getRuntime().availableProcessors() + " cores");
+        System.out.println("========================================");
+
+        Path source = Files.createTempFile("pgunzip_bench_", ".txt");
+        Path plain = Files.createTempFile("pgunzip_bench_", ".gz");
+        Path blocked = Files.createTempFile("pgunzip_bench_", ".bgz");
+        try {
+            long expectedCrc = ParallelGzipBenchmark.writeSample(source, sizeMB * 1024L * 1024L);
+            FileCompressor.compressFile(source.toString(), plain.toString());
+            FileCompressor.compressFileBlocked(source.toString(), blocked.toString());
+            System.out.println("");
+            System.out.println("Plain gzip:   " + Files.size(plain) + " bytes");
+            System.out.println("Blocked gzip: " + Files.size(blocked) + " bytes");
+
+            long start = System.nanoTime();
+            CRC32 crc = new CRC32();
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(plain), 65536)) {
+                in.transferTo(new CheckedOutputStream(OutputStream.nullOutputStream(), crc));
+            }
+            report("GZIPInputStream, plain gzip", sizeMB, System.nanoTime() - start, 0, crc, expectedCrc);
+
+            double oneThreadSeconds = 0;
+            for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    start = System.nanoTime();
+                    crc = new CRC32();
+                    try (InputStream in = new BufferedInputStream(Files.newInputStream(blocked), 65536)) {
+                        ParallelGunzip.decompress(in,
+                            new CheckedOutputStream(OutputStream.nullOutputStream(), crc), pool);
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    if (threads == 1) {
+                        oneThreadSeconds = elapsed / 1e9;
+                    }
+                    report("ParallelGunzip, " + threads + " thread(s)", sizeMB, elapsed,
+                        oneThreadSeconds, crc, expectedCrc);
+                } finally {
+                    pool.shutdown();
+                }
+                if (threads >= maxThreads) {
+                    break;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(plain);
+            Files.deleteIfExists(blocked);
+        }
+    }
+
+    private static void report(String label, int sizeMB, long nanos, double oneThreadSeconds,
+                               CRC32 crc, long expectedCrc) {
+        if (crc.getValue() != expectedCrc) {
+            throw new IllegalStateException(label + ": decompressed data does not match the input");
+        }
+        double seconds = nanos / 1e9;
+        System.out.println("");
+        System.out.println(label);
+        System.out.println("  Time:       " + String.format("%.2f s", seconds));
+        System.out.println("  Throughput: " + String.format("%.1f MB/s", sizeMB / seconds));
+        if (oneThreadSeconds > 0) {
+            System.out.println("  Speedup:    " + String.format("%.2fx", oneThreadSeconds / seconds));
+        }
+    }
+}
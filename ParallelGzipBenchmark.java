@@ -0,0 +1,121 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Benchmark of FileCompressor.compressFileParallel against the single-threaded compressFile.
+ * Compresses the same file with 1, 2, 4, ... threads up to the core count, reporting
+ * throughput, speedup over one thread and output size, and checks every output by reading
+ * it back with GZIPInputStream.
+ * Usage: java ParallelGzipBenchmark [sizeMB] [maxThreads]
+ */
+public class ParallelGzipBenchmark {
+    public static void main(String[] args) throws Exception {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+            : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("========================================");
+        System.out.println("  Parallel Gzip Benchmark");
+        System.out.println("  " + sizeMB + " MB input, up to " + maxThreads + " threads, "
+            + Runtime.getRuntime().availableProcessors() + " cores");
+        System.out.println("========================================");
+
+        Path source = Files.createTempFile("pgzip_bench_", ".txt");
+        Path dest = Files.createTempFile("pgzip_bench_", ".gz");
+        try {
+            long expectedCrc = writeSample(source, sizeMB * 1024L * 1024L);
+
+            long start = System.nanoTime();
+            CompressionResult single = FileCompressor.compressFile(source.toString(), dest.toString());
+            report("GZIPOutputStream", sizeMB, System.nanoTime() - start, 0, single);
+            verify(dest, expectedCrc);
+
+            double oneThreadSeconds = 0;
+            for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    start = System.nanoTime();
+                    CompressionResult result = FileCompressor.compressFileParallel(
+                        source.toString(), dest.toString(), pool);
+                    long elapsed = System.nanoTime() - start;
+                    if (threads == 1) {
+                        oneThreadSeconds = elapsed / 1e9;
+                    }
+                    report("Parallel, " + threads + " thread(s)", sizeMB, elapsed, oneThreadSeconds, result);
+                    verify(dest, expectedCrc);
+                } finally {
+                    pool.shutdown();
+                }
+                if (threads >= maxThreads) {
+                    break;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(dest);
+        }
+    }
+
+    // Log-like text: repetitive enough to compress, varied enough to keep deflate busy
+    static long writeSample(Path file, long size) throws IOException {
+        String[] words = {"GET", "POST", "/api/compress", "/api/download/", "200", "404", "gzip",
+            "application/json", "text/html", "Mozilla/5.0", "keep-alive", "timeout", "upload"};
+        Random random = new Random(42);
+        CRC32 crc = new CRC32();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 65536)) {
+            StringBuilder line = new StringBuilder();
+            long written = 0;
+            while (written < size) {
+                line.setLength(0);
+                line.append(random.nextInt(1_000_000_000)).append(' ');
+                for (int i = 0; i < 8; i++) {
+                    line.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                line.append(Long.toHexString(random.nextLong())).append('\n');
+                byte[] bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+                int n = (int) Math.min(bytes.length, size - written);
+                out.write(bytes, 0, n);
+                crc.update(bytes, 0, n);
+                written += n;
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void verify(Path file, long expectedCrc) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[65536];
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file), 65536)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        if (crc.getValue() != expectedCrc) {
+            throw new IllegalStateException("Decompressed data does not match the input");
+        }
+    }
+
+    private static void report(String label, int sizeMB, long nanos, double oneThreadSeconds,
+                               CompressionResult result) {
+        if (!result.isSuccess()) {
+            throw new IllegalStateException(label + " failed: " + result.getMessage());
+        }
+        double seconds = nanos / 1e9;
+        System.out.println("");
+        System.out.println(label);
+        System.out.println("  Time:       " + String.format("%.2f s", seconds));
+        System.out.println("  Throughput: " + String.format("%.1f MB/s", sizeMB / seconds));
+        if (oneThreadSeconds > 0) {
+            System.out.println("  Speedup:    " + String.format("%.2fx", oneThreadSeconds / seconds));
+        }
+        System.out.println("  Output:     " + result.getCompressedSize() + " bytes ("
+            + String.format("%.2f", result.getCompressionRatio()) + "% saved)");
+    }
+}
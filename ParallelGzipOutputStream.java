@@ -0,0 +1,274 @@
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream that deflates blocks of input on several cores, in the style of pigz.
+ * Input is cut into fixed-size blocks, and each block is deflated as its own task on a
+ * ForkJoinPool with the previous block's last 32 KB set as the dictionary, so matches can
+ * still reach back across the block boundary. Every block but the last ends with a sync
+ * flush, which aligns it to a byte boundary; the blocks are written in order after a single
+ * gzip header, and the trailer carries the CRC32 of the whole input, combined from the
+ * per-block CRCs. The output is one ordinary gzip member that GZIPInputStream reads as is.
+ * <p>
+ * At most two blocks per pool thread are in flight, which bounds memory use.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    // Deflate window size: how far back a match may reach
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    // Deflaters are costly to create, so each pool thread keeps one per level (-1 to 9)
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[11]);
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final int level;
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+    private final ArrayDeque<ForkJoinTask<Block>> inFlight = new ArrayDeque<>();
+
+    private byte[] block;
+    private int blockLength;
+    private byte[] previous;
+    private int previousLength;
+    private long crc;
+    private long totalIn;
+    private boolean closed;
+
+    /**
+     * Uses 128 KB blocks, the default compression level and the common ForkJoinPool
+     */
+    public ParallelGzipOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param out Stream receiving the gzip data
+     * @param blockSize Input bytes per task, at least 32 KB
+     * @param level Deflate level 0-9, or Deflater.DEFAULT_COMPRESSION
+     * @param pool Pool that runs the block compressions
+     */
+    public ParallelGzipOutputStream(OutputStream out, int blockSize, int level, ForkJoinPool pool)
+            throws IOException {
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Block size must be at least " + DICTIONARY_SIZE);
+        }
+        this.out = out;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.pool = pool;
+        this.maxInFlight = Math.max(2, pool.getParallelism() * 2);
+        this.block = new byte[blockSize];
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        block[blockLength++] = (byte) b;
+        if (blockLength == blockSize) {
+            submit(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int n = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Compresses the remaining input, writes the gzip trailer and closes the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // The final block is always submitted, even empty, since it carries the end marker
+            submit(true);
+            while (!inFlight.isEmpty()) {
+                writeBlock(inFlight.removeFirst());
+            }
+            writeInt((int) crc);
+            writeInt((int) totalIn);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        byte[] input = block;
+        int length = blockLength;
+        byte[] dictionary = previous;
+        int dictionaryLength = previousLength;
+        inFlight.addLast(pool.submit(() -> deflate(input, length, dictionary, dictionaryLength, last)));
+
+        previous = input;
+        previousLength = length;
+        block = new byte[blockSize];
+        blockLength = 0;
+
+        // Write finished blocks in order; wait for the oldest only when too many are pending
+        while (!inFlight.isEmpty() && (inFlight.peekFirst().isDone() || inFlight.size() >= maxInFlight)) {
+            writeBlock(inFlight.removeFirst());
+        }
+    }
+
+    private void writeBlock(ForkJoinTask<Block> task) throws IOException {
+        Block result;
+        try {
+            result = task.join();
+        } catch (RuntimeException e) {
+            throw new IOException("Parallel compression failed", e);
+        }
+        out.write(result.data, 0, result.length);
+        crc = crc32Combine(crc, result.crc, result.inputLength);
+        totalIn += result.inputLength;
+    }
+
+    private Block deflate(byte[] input, int length, byte[] dictionary, int dictionaryLength, boolean last) {
+        Deflater deflater = deflater();
+        try {
+            if (dictionary != null) {
+                int size = Math.min(DICTIONARY_SIZE, dictionaryLength);
+                deflater.setDictionary(dictionary, dictionaryLength - size, size);
+            }
+            deflater.setInput(input, 0, length);
+            if (last) {
+                deflater.finish();
+            }
+
+            // Room for the worst case (stored blocks) plus the flush marker
+            byte[] output = new byte[length + length / 1000 + 64];
+            int outputLength = 0;
+            while (true) {
+                if (outputLength == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int n = deflater.deflate(output, outputLength, output.length - outputLength,
+                    last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                outputLength += n;
+                if (last ? deflater.finished() : outputLength < output.length) {
+                    break;
+                }
+            }
+
+            CRC32 blockCrc = new CRC32();
+            blockCrc.update(input, 0, length);
+            return new Block(output, outputLength, blockCrc.getValue(), length);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private Deflater deflater() {
+        Deflater[] deflaters = DEFLATERS.get();
+        int index = Math.max(-1, Math.min(level, 9)) + 1;
+        if (deflaters[index] == null) {
+            deflaters[index] = new Deflater(index - 1, true);
+        }
+        return deflaters[index];
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+
+    /**
+     * CRC32 of two concatenated pieces from the CRC32 of each, as zlib's crc32_combine computes it
+     *
+     * @param crc1 CRC32 of the first piece
+     * @param crc2 CRC32 of the second piece
+     * @param length2 Length of the second piece
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        // Operator matrices for one and two zero bits, squared up to the length of piece two
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * Deflated output of one input block
+     */
+    private static class Block {
+        final byte[] data;
+        final int length;
+        final long crc;
+        final int inputLength;
+
+        Block(byte[] data, int length, long crc, int inputLength) {
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+            this.inputLength = inputLength;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client rate limiting with token buckets.
+ * Clients are identified by their X-API-Key header if the key is one of the configured
+ * keys (compressor.apiKeys), and by IP address otherwise, so that a client cannot get a
+ * fresh bucket by inventing keys. Each
+ * client has a requests/sec bucket and a bytes/sec bucket; both are checked from the
+ * headers before the body is read, and over-limit requests get 429 with Retry-After.
+ * An upload bigger than the byte burst is still let through when the bucket has tokens,
+ * leaving the bucket in debt, so large files are paced instead of refused outright.
+ * Buckets live in a ConcurrentHashMap and are locked individually, so clients never
+ * contend with each other; idle buckets are expired by a background sweep.
+ */
+public class RateLimiter extends Filter {
+    public static final String API_KEY_HEADER = "X-API-Key";
+    private static final Set<String> API_KEYS = parseKeys(ServerConfig.API_KEYS);
+
+    private final double requestsPerSecond;
+    private final double requestBurst;
+    private final double bytesPerSecond;
+    private final double byteBurst;
+    private final long unknownLengthBytes;
+    private final long idleNanos;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder limitedRequests = new LongAdder();
+    private final LongAdder limitedBytes = new LongAdder();
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rate-limit-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param requestsPerSecond Sustained request rate per client, 0 to disable
+     * @param requestBurst Requests a client may make at once after being idle
+     * @param bytesPerSecond Sustained upload rate per client, 0 to disable
+     * @param byteBurst Upload bytes a client may send at once after being idle
+     * @param unknownLengthBytes Bytes charged up front for bodies without Content-Length
+     * @param idleSeconds Buckets unused for this long are dropped
+     */
+    public RateLimiter(double requestsPerSecond, double requestBurst, double bytesPerSecond,
+                       double byteBurst, long unknownLengthBytes, long idleSeconds) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.requestBurst = Math.max(1, requestBurst);
+        this.bytesPerSecond = bytesPerSecond;
+        this.byteBurst = Math.max(1, byteBurst);
+        this.unknownLengthBytes = unknownLengthBytes;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        long sweepSeconds = Math.max(1, idleSeconds / 2);
+        sweeper.scheduleWithFixedDelay(this::expireIdle, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (requestsPerSecond <= 0 && bytesPerSecond <= 0) {
+            chain.doFilter(exchange);
+            return;
+        }
+
+        String client = clientKey(exchange);
+        Bucket bucket = buckets.computeIfAbsent(client, k -> new Bucket());
+        double waitSeconds = bucket.tryAcquire(requestCharge(exchange));
+        if (waitSeconds > 0) {
+            reject(exchange, waitSeconds);
+            return;
+        }
+
+        allowed.increment();
+        chain.doFilter(exchange);
+    }
+
+    @Override
+    public String description() {
+        return "Per-client token bucket rate limiting";
+    }
+
+    /**
+     * @return "key:" + the API key for configured keys, otherwise "ip:" + the remote address
+     */
+    static String clientKey(HttpExchange exchange) {
+        String apiKey = exchange.getRequestHeaders().getFirst(API_KEY_HEADER);
+        if (apiKey != null && API_KEYS.contains(apiKey.trim())) {
+            return "key:" + apiKey.trim();
+        }
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return "ip:" + (remote != null && remote.getAddress() != null
+            ? remote.getAddress().getHostAddress() : "unknown");
+    }
+
+    /**
+     * Parses a comma-separated key list such as "alice-key,batch-key"
+     */
+    static Set<String> parseKeys(String spec) {
+        Set<String> keys = new HashSet<>();
+        for (String key : spec.split(",")) {
+            if (!key.isBlank()) {
+                keys.add(key.trim());
+            }
+        }
+        return keys;
+    }
+
+    private long requestCharge(HttpExchange exchange) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Math.max(0, Long.parseLong(contentLength.trim()));
+            } catch (NumberFormatException e) {
+                return unknownLengthBytes;
+            }
+        }
+        return exchange.getRequestHeaders().containsKey("Transfer-Encoding") ? unknownLengthBytes : 0;
+    }
+
+    private void reject(HttpExchange exchange, double waitSeconds) throws IOException {
+        byte[] body = "Too many requests, please slow down.".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf((long) Math.ceil(waitSeconds)));
+        // The body is not read, so the connection cannot be reused
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(429, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private void expireIdle() {
+        long now = System.nanoTime();
+        Iterator<Bucket> it = buckets.values().iterator();
+        while (it.hasNext()) {
+            Bucket bucket = it.next();
+            // A bucket still in debt must stay, or dropping it would forgive the debt
+            if (now - bucket.lastUsed > idleNanos && bucket.isRefilled(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    public int getTrackedClients() {
+        return buckets.size();
+    }
+
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    public long getLimitedRequests() {
+        return limitedRequests.sum();
+    }
+
+    public long getLimitedBytes() {
+        return limitedBytes.sum();
+    }
+
+    /**
+     * Request and byte tokens for one client
+     */
+    private class Bucket {
+        private double requestTokens = requestBurst;
+        private double byteTokens = byteBurst;
+        private long refilledAt = System.nanoTime();
+        volatile long lastUsed = refilledAt;
+
+        /**
+         * Takes one request token and the given bytes if both buckets allow it
+         *
+         * @return 0 if admitted, otherwise seconds until the request would be admitted
+         */
+        synchronized double tryAcquire(long bytes) {
+            long now = System.nanoTime();
+            double elapsed = (now - refilledAt) / 1e9;
+            refilledAt = now;
+            lastUsed = now;
+            requestTokens = Math.min(requestBurst, requestTokens + elapsed * requestsPerSecond);
+            byteTokens = Math.min(byteBurst, byteTokens + elapsed * bytesPerSecond);
+
+            if (requestsPerSecond > 0 && requestTokens < 1) {
+                limitedRequests.increment();
+                return (1 - requestTokens) / requestsPerSecond;
+            }
+            // Any positive balance admits the upload; oversized ones leave the bucket in debt
+            if (bytesPerSecond > 0 && bytes > 0 && byteTokens <= 0) {
+                limitedBytes.increment();
+                return Math.max(-byteTokens, 1) / bytesPerSecond;
+            }
+            if (requestsPerSecond > 0) {
+                requestTokens -= 1;
+            }
+            if (bytesPerSecond > 0) {
+                byteTokens -= bytes;
+            }
+            return 0;
+        }
+
+        synchronized boolean isRefilled(long now) {
+            double elapsed = (now - refilledAt) / 1e9;
+            return requestTokens + elapsed * requestsPerSecond >= requestBurst
+                && byteTokens + elapsed * bytesPerSecond >= byteBurst;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds the executor that runs HTTP exchanges, kept apart from JavaWebServer so that
+ * benchmarks can use it without loading the server's handlers and shared state.
+ */
+public class RequestExecutors {
+    private RequestExecutors() {
+    }
+
+    /**
+     * Builds the request executor: "virtual" runs each exchange on its own virtual thread
+     * (Java 21+), anything else uses a fixed pool of platform threads.
+     */
+    public static ExecutorService create(String mode, int threads) {
+        if ("virtual".equalsIgnoreCase(mode)) {
+            try {
+                // Looked up reflectively so the server still compiles and runs on Java 17
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads require Java 21+, using a platform pool of "
+                    + threads + " threads instead");
+            }
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * @return the mode create actually uses for the requested one: "virtual" only
+     *     where virtual threads exist, "platform" otherwise
+     */
+    public static String effectiveMode(String mode) {
+        return "virtual".equalsIgnoreCase(mode) && supportsVirtualThreads() ? "virtual" : "platform";
+    }
+
+    public static boolean supportsVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content-addressed cache of compression results.
+ * Keys are a SHA-256 of the upload plus the codec parameters, entries are evicted
+ * least-recently-used once their total size exceeds the byte budget, and concurrent
+ * requests for the same key share a single compression (single-flight).
+ */
+public class ResultCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private long currentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes Total size of cached compressed data
+     */
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Builds the cache key for an upload
+     *
+     * @param data Uploaded bytes
+     * @param codecParams Codec name, settings and, for codecs that store it, the filename
+     * @return hex-encoded SHA-256 of the parameters and data
+     */
+    public static String key(byte[] data, String codecParams) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(codecParams.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            byte[] hash = digest.digest(data);
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Returns the cached entry for the key, or computes it once no matter how many
+     * threads ask concurrently.
+     *
+     * @param key Cache key from key()
+     * @param loader Computes the entry on a miss
+     * @return the cached or freshly computed entry
+     */
+    public Entry getOrCompute(String key, Callable<Entry> loader) throws Exception {
+        Entry entry = get(key);
+        if (entry != null) {
+            hits.increment();
+            return entry;
+        }
+
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        try {
+            // Another flight may have finished between the lookup and putIfAbsent
+            entry = get(key);
+            if (entry != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                entry = loader.call();
+                put(key, entry);
+            }
+            future.complete(entry);
+            return entry;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        long size = entry.getData().length;
+        if (size > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            currentBytes -= previous.getData().length;
+        }
+        currentBytes += size;
+
+        // Evict least recently used entries until the budget is met
+        Iterator<Entry> it = entries.values().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            currentBytes -= eldest.getData().length;
+            evictions.increment();
+        }
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * A cached compression: its statistics and the compressed bytes
+     */
+    public static class Entry {
+        private final CompressionResult result;
+        private final byte[] data;
+
+        public Entry(CompressionResult result, byte[] data) {
+            this.result = result;
+            this.data = data;
+        }
+
+        public CompressionResult getResult() {
+            return result;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.*;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds compression results under opaque IDs until they are downloaded or expire.
+ * Small results stay in memory up to a total byte budget; larger ones, and small ones
+ * beyond the budget, live as files in the store directory.
+ */
+public class ResultStore {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Path directory;
+    private final long ttlMillis;
+    private final long memoryBudget;
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final Map<String, StoredResult> results = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService cleaner;
+
+    /**
+     * @param directory Directory for file-backed results
+     * @param ttlMillis How long a result stays available
+     * @param memoryBudget Total bytes of in-memory results; beyond it results are spilled to files
+     */
+    public ResultStore(Path directory, long ttlMillis, long memoryBudget) throws IOException {
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+        this.memoryBudget = memoryBudget;
+        Files.createDirectories(directory);
+        deleteLeftovers();
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "result-store-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, ttlMillis / 4);
+        cleaner.scheduleAtFixedRate(this::purgeExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Allocates a new file in the store directory for a result that is about to be written
+     */
+    public Path newFile(String suffix) throws IOException {
+        return Files.createTempFile(directory, "result_", suffix);
+    }
+
+    /**
+     * Registers a file (normally obtained from newFile) as a downloadable result.
+     * Files outside the store directory are moved into it.
+     */
+    public StoredResult storeFile(Path file, String filename, String contentType) throws IOException {
+        Path target = file;
+        if (!file.toAbsolutePath().getParent().equals(directory.toAbsolutePath())) {
+            target = newFile("");
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        StoredResult result = new StoredResult(newId(), filename, contentType,
+            target, null, Files.size(target), System.currentTimeMillis() + ttlMillis);
+        results.put(result.getId(), result);
+        return result;
+    }
+
+    /**
+     * Registers an in-memory result, or writes it to a file if in-memory results would
+     * exceed the memory budget
+     */
+    public StoredResult storeBytes(byte[] data, String filename, String contentType) throws IOException {
+        if (memoryBytes.addAndGet(data.length) > memoryBudget) {
+            memoryBytes.addAndGet(-data.length);
+            Path file = newFile("");
+            try {
+                Files.write(file, data);
+            } catch (IOException e) {
+                deleteQuietly(file);
+                throw e;
+            }
+            return storeFile(file, filename, contentType);
+        }
+        StoredResult result = new StoredResult(newId(), filename, contentType,
+            null, data, data.length, System.currentTimeMillis() + ttlMillis);
+        results.put(result.getId(), result);
+        return result;
+    }
+
+    /**
+     * @return the result for the ID, or null if it is unknown or has expired
+     */
+    public StoredResult get(String id) {
+        StoredResult result = results.get(id);
+        if (result == null) {
+            return null;
+        }
+        if (result.isExpired()) {
+            remove(result);
+            return null;
+        }
+        return result;
+    }
+
+    public void purgeExpired() {
+        Iterator<StoredResult> it = results.values().iterator();
+        while (it.hasNext()) {
+            StoredResult result = it.next();
+            if (result.isExpired()) {
+                it.remove();
+                release(result);
+            }
+        }
+    }
+
+    private void remove(StoredResult result) {
+        if (results.remove(result.getId(), result)) {
+            release(result);
+        }
+    }
+
+    private void release(StoredResult result) {
+        if (result.getData() != null) {
+            memoryBytes.addAndGet(-result.getData().length);
+        }
+        deleteQuietly(result.getFile());
+    }
+
+    /**
+     * @return bytes currently held by in-memory results
+     */
+    public long getMemoryBytes() {
+        return memoryBytes.get();
+    }
+
+    // Files from a previous run can no longer be referenced by any ID
+    private void deleteLeftovers() {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "result_*")) {
+            for (Path path : stream) {
+                deleteQuietly(path);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not clean result directory: " + e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Could not delete result file " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static String newId() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        StringBuilder id = new StringBuilder(32);
+        for (byte b : bytes) {
+            id.append(Character.forDigit((b >> 4) & 0xF, 16));
+            id.append(Character.forDigit(b & 0xF, 16));
+        }
+        return id.toString();
+    }
+
+    /**
+     * A downloadable result, backed either by a file or by an in-memory buffer
+     */
+    public static class StoredResult {
+        private final String id;
+        private final String filename;
+        private final String contentType;
+        private final Path file;
+        private final byte[] data;
+        private final long size;
+        private final long expiresAt;
+
+        StoredResult(String id, String filename, String contentType,
+                     Path file, byte[] data, long size, long expiresAt) {
+            this.id = id;
+            this.filename = filename;
+            this.contentType = contentType;
+            this.file = file;
+            this.data = data;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Results never change once stored, so the ID doubles as a strong validator
+         */
+        public String getETag() {
+            return "\"" + id + "\"";
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+
+        public String getDownloadUrl() {
+            return "/api/download/" + id;
+        }
+    }
+}
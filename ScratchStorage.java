@@ -0,0 +1,360 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-request scratch storage.
+ * Every request gets a private workspace directory, so concurrent requests never see
+ * each other's files. Small payloads are held in pooled direct ByteBuffers and only
+ * spill to disk past a threshold. Disk use across all workspaces is capped by a quota,
+ * and workspaces are deleted by a background thread instead of the request thread.
+ */
+public class ScratchStorage {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final long memoryThreshold;
+    private final long diskQuota;
+    private final AtomicLong diskUsed = new AtomicLong();
+
+    private final ConcurrentLinkedQueue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocatedChunks = new AtomicInteger();
+    private final int maxChunks;
+
+    private final ExecutorService cleaner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "scratch-cleaner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param root Directory under which workspaces are created
+     * @param memoryThreshold Bytes a single buffer may keep in memory before spilling
+     * @param poolBytes Total direct memory shared by all buffers
+     * @param diskQuota Total bytes all workspaces may write to disk
+     */
+    public ScratchStorage(Path root, long memoryThreshold, long poolBytes, long diskQuota) throws IOException {
+        this.root = root;
+        this.memoryThreshold = memoryThreshold;
+        this.diskQuota = diskQuota;
+        this.maxChunks = (int) Math.max(1, poolBytes / CHUNK_SIZE);
+        Files.createDirectories(root);
+
+        // Workspaces left behind by a previous run are unreachable
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "req_*")) {
+            for (Path stale : stream) {
+                cleaner.execute(() -> deleteRecursively(stale));
+            }
+        }
+    }
+
+    /**
+     * Creates a private workspace; close it when the request is done
+     */
+    public Workspace open() throws IOException {
+        return new Workspace(Files.createTempDirectory(root, "req_"));
+    }
+
+    public long getDiskUsed() {
+        return diskUsed.get();
+    }
+
+    public int getAllocatedChunks() {
+        return allocatedChunks.get();
+    }
+
+    private void reserve(long bytes) throws IOException {
+        while (true) {
+            long used = diskUsed.get();
+            if (used + bytes > diskQuota) {
+                throw new IOException("Scratch disk quota exceeded");
+            }
+            if (diskUsed.compareAndSet(used, used + bytes)) {
+                return;
+            }
+        }
+    }
+
+    private ByteBuffer acquireChunk() {
+        ByteBuffer chunk = freeChunks.poll();
+        if (chunk != null) {
+            chunk.clear();
+            return chunk;
+        }
+        if (allocatedChunks.incrementAndGet() > maxChunks) {
+            allocatedChunks.decrementAndGet();
+            return null;
+        }
+        return ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    private void releaseChunks(List<ByteBuffer> chunks) {
+        freeChunks.addAll(chunks);
+        chunks.clear();
+    }
+
+    private static void deleteRecursively(Path path) {
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            // Already gone
+        } catch (IOException e) {
+            System.err.println("Could not delete scratch directory " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * A request's private scratch area
+     */
+    public class Workspace implements Closeable {
+        private final Path directory;
+        private final List<SpillBuffer> buffers = new ArrayList<>();
+        private long reserved;
+        private boolean closed;
+
+        Workspace(Path directory) {
+            this.directory = directory;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        /**
+         * Creates a subdirectory for tools that write files themselves (e.g. ZIP extraction);
+         * write through charging() so the output counts against the quota.
+         */
+        public Path newDirectory(String name) throws IOException {
+            return Files.createDirectories(directory.resolve(name));
+        }
+
+        /**
+         * Creates a buffer that keeps data in pooled direct memory until it outgrows the threshold
+         */
+        public SpillBuffer newBuffer() {
+            SpillBuffer buffer = new SpillBuffer(this);
+            buffers.add(buffer);
+            return buffer;
+        }
+
+        /**
+         * Wraps a stream writing into the workspace so that every write is charged against the
+         * disk quota before it happens; a write that would exceed the quota throws IOException
+         * and is not performed.
+         */
+        public OutputStream charging(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    charge(1);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    charge(len);
+                    out.write(b, off, len);
+                }
+            };
+        }
+
+        synchronized void charge(long bytes) throws IOException {
+            reserve(bytes);
+            reserved += bytes;
+        }
+
+        Path newSpillFile() throws IOException {
+            return Files.createTempFile(directory, "spill_", ".tmp");
+        }
+
+        /**
+         * Releases pooled memory and deletes the workspace in the background
+         */
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (SpillBuffer buffer : buffers) {
+                buffer.release();
+            }
+            long toRelease = reserved;
+            cleaner.execute(() -> {
+                deleteRecursively(directory);
+                diskUsed.addAndGet(-toRelease);
+            });
+        }
+    }
+
+    /**
+     * Write-once buffer backed by pooled direct ByteBuffers, spilling to a file in the
+     * workspace once it exceeds the memory threshold or the pool runs dry
+     */
+    public class SpillBuffer extends OutputStream {
+        private final Workspace workspace;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private long size;
+        private Path spillFile;
+        private OutputStream spill;
+
+        SpillBuffer(Workspace workspace) {
+            this.workspace = workspace;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spill == null && size + len <= memoryThreshold) {
+                int written = writeToChunks(b, off, len);
+                size += written;
+                off += written;
+                len -= written;
+                if (len == 0) {
+                    return;
+                }
+            }
+            if (spill == null) {
+                spillToDisk();
+            }
+            workspace.charge(len);
+            spill.write(b, off, len);
+            size += len;
+        }
+
+        // Copies as much as fits into pooled chunks; returns the number of bytes stored
+        private int writeToChunks(byte[] b, int off, int len) {
+            int written = 0;
+            while (written < len) {
+                ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+                if (chunk == null || !chunk.hasRemaining()) {
+                    chunk = acquireChunk();
+                    if (chunk == null) {
+                        break;
+                    }
+                    chunks.add(chunk);
+                }
+                int n = Math.min(chunk.remaining(), len - written);
+                chunk.put(b, off + written, n);
+                written += n;
+            }
+            return written;
+        }
+
+        private void spillToDisk() throws IOException {
+            spillFile = workspace.newSpillFile();
+            workspace.charge(size);
+            FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.WRITE);
+            for (ByteBuffer chunk : chunks) {
+                ByteBuffer data = chunk.duplicate();
+                data.flip();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+            releaseChunks(chunks);
+            spill = new BufferedOutputStream(Channels.newOutputStream(channel), CHUNK_SIZE);
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public boolean isSpilled() {
+            return spillFile != null;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (spill != null) {
+                spill.flush();
+            }
+        }
+
+        /**
+         * Opens a fresh stream over everything written so far
+         */
+        public InputStream openInputStream() throws IOException {
+            if (spill != null) {
+                spill.flush();
+                return new BufferedInputStream(Files.newInputStream(spillFile), CHUNK_SIZE);
+            }
+            List<ByteBuffer> views = new ArrayList<>(chunks.size());
+            for (ByteBuffer chunk : chunks) {
+                ByteBuffer view = chunk.duplicate();
+                view.flip();
+                views.add(view);
+            }
+            return new ChunkInputStream(views);
+        }
+
+        void release() {
+            releaseChunks(chunks);
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing spill file: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads sequentially through a list of ByteBuffers
+     */
+    private static class ChunkInputStream extends InputStream {
+        private final List<ByteBuffer> chunks;
+        private int index;
+
+        ChunkInputStream(List<ByteBuffer> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            while (index < chunks.size() && !chunks.get(index).hasRemaining()) {
+                index++;
+            }
+            if (index == chunks.size()) {
+                return -1;
+            }
+            ByteBuffer chunk = chunks.get(index);
+            int n = Math.min(len, chunk.remaining());
+            chunk.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Tuning options for JavaWebServer.
+ * Each value can be overridden with a system property, e.g.
+ * java -Dcompressor.inMemoryThreshold=16777216 JavaWebServer
+ */
+public class ServerConfig {
+
+    // Uploads up to this many bytes are compressed in memory instead of via a temp file
+    public static final long IN_MEMORY_THRESHOLD =
+        longProperty("compressor.inMemoryThreshold", 8L * 1024 * 1024);
+
+    // Directory holding compression results until they are downloaded
+    public static final String RESULT_DIR = System.getProperty("compressor.resultDir",
+        System.getProperty("java.io.tmpdir") + java.io.File.separator + "compressor-results");
+
+    // How long a result stays downloadable
+    public static final long RESULT_TTL_SECONDS =
+        longProperty("compressor.resultTtlSeconds", 600);
+
+    // Total bytes of small results kept in memory; further ones are written to the result directory
+    public static final long RESULT_MEMORY_BYTES =
+        longProperty("compressor.resultMemoryBytes", 128L * 1024 * 1024);
+
+    // HTTP engine: "jdk" (com.sun.net.httpserver) or "nio" (NioHttpServer)
+    public static final String ENGINE = System.getProperty("compressor.engine", "jdk");
+
+    // Request executor: "platform" (fixed thread pool) or "virtual" (thread per request, Java 21+)
+    public static final String EXECUTOR_MODE = System.getProperty("compressor.executor", "platform");
+
+    // Size of the platform thread pool
+    public static final int THREADS = (int) longProperty("compressor.threads", 10);
+
+    // Dynamic responses smaller than this are sent without Content-Encoding
+    public static final long ENCODING_MIN_SIZE = longProperty("compressor.encoding.minSize", 1024);
+
+    // MIME types eligible for on-the-fly gzip/deflate encoding
+    public static final String ENCODING_MIME_TYPES = System.getProperty("compressor.encoding.mimeTypes",
+        "text/html,text/plain,text/css,application/json,application/javascript,image/svg+xml");
+
+    // Largest request body accepted; bigger uploads get 413
+    public static final long MAX_REQUEST_BYTES =
+        longProperty("compressor.admission.maxRequestBytes", 4L * 1024 * 1024 * 1024);
+
+    // Total request bytes allowed in flight at once; beyond this requests get 503
+    public static final long IN_FLIGHT_BYTES =
+        longProperty("compressor.admission.inFlightBytes", 4L * 1024 * 1024 * 1024);
+
+    // Bytes charged against the budget for uploads without Content-Length
+    public static final long UNKNOWN_LENGTH_BYTES =
+        longProperty("compressor.admission.unknownLengthBytes", 64L * 1024 * 1024);
+
+    // Requests allowed to wait for a worker thread before new ones are shed with 503
+    public static final int QUEUE_CAPACITY = (int) longProperty("compressor.queue.capacity", 100);
+
+    // Retry-After value (seconds) sent with 503 responses
+    public static final long RETRY_AFTER_SECONDS = longProperty("compressor.admission.retryAfterSeconds", 5);
+
+    // Memory budget of the content-addressed result cache
+    public static final long CACHE_MAX_BYTES = longProperty("compressor.cache.maxBytes", 256L * 1024 * 1024);
+
+    // Worker threads running asynchronous /api/jobs compressions
+    public static final int JOB_THREADS = (int) longProperty("compressor.jobs.threads", 2);
+
+    // Jobs allowed to wait for a worker before submissions get 503
+    public static final int JOB_QUEUE_CAPACITY = (int) longProperty("compressor.jobs.queueCapacity", 16);
+
+    // Directory under which each request gets a private scratch workspace
+    public static final String SCRATCH_DIR = System.getProperty("compressor.scratchDir",
+        System.getProperty("java.io.tmpdir") + java.io.File.separator + "compressor-scratch");
+
+    // Bytes a single scratch buffer keeps in pooled direct memory before spilling to disk
+    public static final long SCRATCH_MEMORY_THRESHOLD =
+        longProperty("compressor.scratch.memoryThreshold", 4L * 1024 * 1024);
+
+    // Direct memory shared by all scratch buffers
+    public static final long SCRATCH_POOL_BYTES =
+        longProperty("compressor.scratch.poolBytes", 64L * 1024 * 1024);
+
+    // Disk space all scratch workspaces together may use
+    public static final long SCRATCH_DISK_QUOTA =
+        longProperty("compressor.scratch.diskQuota", 16L * 1024 * 1024 * 1024);
+
+    // Directory holding partially received chunked uploads
+    public static final String UPLOAD_DIR = System.getProperty("compressor.uploadDir",
+        System.getProperty("java.io.tmpdir") + java.io.File.separator + "compressor-uploads");
+
+    // Largest total size a chunked upload may declare
+    public static final long UPLOAD_MAX_BYTES =
+        longProperty("compressor.uploads.maxBytes", 64L * 1024 * 1024 * 1024);
+
+    // Threads compressing chunked uploads as their data arrives
+    public static final int UPLOAD_THREADS = (int) longProperty("compressor.uploads.threads", 2);
+
+    // Comma-separated API keys that identify a client by X-API-Key instead of its IP address
+    public static final String API_KEYS = System.getProperty("compressor.apiKeys", "");
+
+    // Sustained requests per second allowed per client (IP or X-API-Key), 0 to disable
+    public static final long RATE_REQUESTS_PER_SECOND = longProperty("compressor.rate.requestsPerSecond", 50);
+
+    // Requests a client may burst after being idle
+    public static final long RATE_REQUEST_BURST = longProperty("compressor.rate.requestBurst", 100);
+
+    // Sustained upload bytes per second allowed per client, 0 to disable
+    public static final long RATE_BYTES_PER_SECOND =
+        longProperty("compressor.rate.bytesPerSecond", 64L * 1024 * 1024);
+
+    // Upload bytes a client may burst after being idle
+    public static final long RATE_BYTE_BURST =
+        longProperty("compressor.rate.byteBurst", 256L * 1024 * 1024);
+
+    // Rate limit state for clients idle this long is dropped
+    public static final long RATE_IDLE_SECONDS = longProperty("compressor.rate.idleSeconds", 300);
+
+    // Compression requests up to this Content-Length run in the scheduler's small lane
+    public static final long SCHEDULER_SMALL_MAX_BYTES =
+        longProperty("compressor.scheduler.smallMaxBytes", 8L * 1024 * 1024);
+
+    // Small requests the scheduler runs at once
+    public static final int SCHEDULER_SMALL_THREADS = (int) longProperty("compressor.scheduler.smallThreads", 8);
+
+    // Bulk requests the scheduler runs at once (idle bulk slots also take small ones)
+    public static final int SCHEDULER_BULK_THREADS = (int) longProperty("compressor.scheduler.bulkThreads", 2);
+
+    // Requests each scheduler lane may queue before new ones get 503. Waiting requests hold a server
+    // thread, so with the platform executor bulk requests (queued and running) are also limited to
+    // compressor.threads minus smallThreads, which leaves threads for small requests
+    public static final int SCHEDULER_QUEUE_CAPACITY = (int) longProperty("compressor.scheduler.queueCapacity", 200);
+
+    // Requests one client may have queued or running in a scheduler lane before new ones get 429
+    public static final int SCHEDULER_MAX_PER_CLIENT = (int) longProperty("compressor.scheduler.maxPerClient", 16);
+
+    // Fair-share weights per client, e.g. "key:batch=0.5,ip:10.0.0.7=4"; unlisted clients weigh 1
+    public static final String SCHEDULER_WEIGHTS = System.getProperty("compressor.scheduler.weights", "");
+
+    // Structured (JSON lines) access log file; empty to disable
+    public static final String ACCESS_LOG = System.getProperty("compressor.accessLog",
+        System.getProperty("java.io.tmpdir") + java.io.File.separator + "compressor-logs"
+            + java.io.File.separator + "access.log");
+
+    // Records the access log can buffer before new ones are dropped
+    public static final int ACCESS_LOG_BUFFER = (int) longProperty("compressor.accessLog.bufferRecords", 8192);
+
+    // Size at which the access log is rotated
+    public static final long ACCESS_LOG_MAX_BYTES =
+        longProperty("compressor.accessLog.maxBytes", 64L * 1024 * 1024);
+
+    // Rotated access log files kept
+    public static final int ACCESS_LOG_FILES = (int) longProperty("compressor.accessLog.files", 5);
+
+    // Default deflate level (0-9 or "auto") and strategy (DEFAULT, FILTERED, HUFFMAN_ONLY) for
+    // compressions that do not choose their own
+    public static final CompressionSettings COMPRESSION_SETTINGS =
+        settingsProperty("compressor.level", "compressor.strategy");
+
+    // Input bytes the "auto" level compresses with each candidate setting
+    public static final int TUNING_SAMPLE_BYTES = (int) longProperty("compressor.tuning.sampleBytes", 128 * 1024);
+
+    // Slowest compression throughput (MB/s on the sample) the "auto" level accepts for a better ratio
+    public static final double TUNING_TARGET_MBPS = doubleProperty("compressor.tuning.targetMBps", 20);
+
+    // Sampled byte entropy (bits/byte, at most 8) from which input is stored instead of deflated
+    public static final double STORE_ENTROPY_BITS = doubleProperty("compressor.store.entropyBits", 7.9);
+
+    private ServerConfig() {
+    }
+
+    static CompressionSettings settingsProperty(String levelName, String strategyName) {
+        try {
+            return CompressionSettings.parse(System.getProperty(levelName), System.getProperty(strategyName));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid value for " + levelName + "/" + strategyName + ": " + e.getMessage()
+                + ", using the defaults");
+            return CompressionSettings.DEFAULT;
+        }
+    }
+
+    static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long longProperty(String name, long defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
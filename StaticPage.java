@@ -0,0 +1,163 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A page rendered once at startup.
+ * Holds the UTF-8 body, a gzip-precompressed copy and strong ETags for both,
+ * so serving it costs no rendering, encoding or compression work.
+ */
+public class StaticPage {
+    private final String contentType;
+    private final byte[] identityBody;
+    private final byte[] gzipBody;
+    private final String identityETag;
+    private final String gzipETag;
+
+    private StaticPage(String contentType, byte[] identityBody, byte[] gzipBody, String etag) {
+        this.contentType = contentType;
+        this.identityBody = identityBody;
+        this.gzipBody = gzipBody;
+        // Each representation needs its own strong validator
+        this.identityETag = "\"" + etag + "\"";
+        this.gzipETag = "\"" + etag + "-gz\"";
+    }
+
+    /**
+     * Renders a page into its identity and gzip variants
+     *
+     * @param contentType Content-Type header value
+     * @param body Page content
+     * @return the prerendered page
+     */
+    public static StaticPage of(String contentType, String body) {
+        byte[] identity = body.getBytes(StandardCharsets.UTF_8);
+        return new StaticPage(contentType, identity, gzip(identity), digest(identity));
+    }
+
+    /**
+     * Sends the page, honouring If-None-Match and Accept-Encoding
+     */
+    public void serve(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            byte[] response = "Method not allowed".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(405, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+            return;
+        }
+
+        Headers requestHeaders = exchange.getRequestHeaders();
+        boolean useGzip = acceptsGzip(requestHeaders.getFirst("Accept-Encoding"));
+        byte[] body = useGzip ? gzipBody : identityBody;
+        String etag = useGzip ? gzipETag : identityETag;
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Vary", "Accept-Encoding");
+        headers.set("Cache-Control", "no-cache");
+
+        if (matches(requestHeaders.getFirst("If-None-Match"), etag)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        headers.set("Content-Type", contentType);
+        if (useGzip) {
+            headers.set("Content-Encoding", "gzip");
+        }
+        if ("HEAD".equals(method)) {
+            headers.set("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * @return true if the Accept-Encoding header allows gzip (q value above zero)
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        return acceptsEncoding(acceptEncoding, "gzip");
+    }
+
+    static boolean acceptsEncoding(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        // An explicit entry for the coding wins over the "*" wildcard
+        double explicitQ = -1;
+        double wildcardQ = -1;
+        for (String entry : acceptEncoding.split(",")) {
+            String[] params = entry.split(";");
+            String name = params[0].trim();
+            double q = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(coding)) {
+                explicitQ = q;
+            } else if (name.equals("*")) {
+                wildcardQ = q;
+            }
+        }
+        return explicitQ >= 0 ? explicitQ > 0 : wildcardQ > 0;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzos = new GZIPOutputStream(buffer)) {
+            gzos.write(data);
+        } catch (IOException e) {
+            // Cannot happen for an in-memory buffer
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static String digest(byte[] data) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
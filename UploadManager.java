@@ -0,0 +1,385 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Resumable chunked uploads.
+ * A client creates an upload with its total size, sends chunks at byte offsets in any
+ * order and finalizes it. Chunks are written into a preallocated file, and the
+ * contiguous prefix received so far is compressed in the background, so most of the
+ * deflate work is done by the time the last chunk arrives.
+ */
+public class UploadManager {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final ResultStore resultStore;
+    private final long maxBytes;
+    private final long idleMillis;
+    private final ExecutorService compressors;
+    private final ScheduledExecutorService cleaner;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory Where partial uploads are kept
+     * @param resultStore Where finalized results are registered for download
+     * @param maxBytes Largest upload that may be created
+     * @param idleMillis Uploads without activity for this long are discarded
+     * @param threads Threads compressing received data in the background
+     */
+    public UploadManager(Path directory, ResultStore resultStore, long maxBytes,
+                         long idleMillis, int threads) throws IOException {
+        this.directory = directory;
+        this.resultStore = resultStore;
+        this.maxBytes = maxBytes;
+        this.idleMillis = idleMillis;
+        AtomicInteger counter = new AtomicInteger();
+        this.compressors = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "upload-compressor-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Files.createDirectories(directory);
+
+        // Abandoned uploads hold a file channel, a Deflater and disk space until swept
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "upload-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleMillis / 4);
+        cleaner.scheduleAtFixedRate(this::purgeIdle, period, period, TimeUnit.MILLISECONDS);
+
+        // Partial uploads from a previous run can never be finalized
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "upload_*")) {
+            for (Path stale : stream) {
+                Files.deleteIfExists(stale);
+            }
+        }
+    }
+
+    /**
+     * Starts an upload and preallocates its file
+     *
+     * @param filename Original filename
+     * @param size Total size the client will send
+     * @return the new upload
+     * @throws IllegalArgumentException if the size is negative or over the limit
+     */
+    public Upload create(String filename, long size) throws IOException {
+        if (size < 0 || size > maxBytes) {
+            throw new IllegalArgumentException("Upload size must be between 0 and " + maxBytes + " bytes");
+        }
+        Path file = Files.createTempFile(directory, "upload_", ".part");
+        Path resultFile = null;
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(size);
+            }
+            resultFile = resultStore.newFile(".gz");
+            Upload upload = new Upload(newId(), filename, size, file, resultFile);
+            uploads.put(upload.getId(), upload);
+            return upload;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            if (resultFile != null) {
+                Files.deleteIfExists(resultFile);
+            }
+            throw e;
+        }
+    }
+
+    public Upload get(String id) {
+        return uploads.get(id);
+    }
+
+    /**
+     * Discards an upload and its partial data
+     *
+     * @return false if the upload does not exist
+     */
+    public boolean abort(String id) {
+        Upload upload = uploads.remove(id);
+        if (upload == null) {
+            return false;
+        }
+        upload.discard();
+        return true;
+    }
+
+    /**
+     * Finishes compression of a fully received upload and stores the result
+     *
+     * @throws IllegalStateException if bytes are still missing or compression failed
+     */
+    public ResultStore.StoredResult finish(Upload upload) throws IOException {
+        ResultStore.StoredResult stored = upload.finish(resultStore);
+        uploads.remove(upload.getId());
+        return stored;
+    }
+
+    public void purgeIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Upload> it = uploads.values().iterator();
+        while (it.hasNext()) {
+            Upload upload = it.next();
+            if (now - upload.lastActivity > idleMillis) {
+                it.remove();
+                upload.discard();
+            }
+        }
+    }
+
+    private static String newId() {
+        byte[] bytes = new byte[12];
+        RANDOM.nextBytes(bytes);
+        StringBuilder id = new StringBuilder(24);
+        for (byte b : bytes) {
+            id.append(Character.forDigit((b >> 4) & 0xF, 16));
+            id.append(Character.forDigit(b & 0xF, 16));
+        }
+        return id.toString();
+    }
+
+    /**
+     * One upload in progress
+     */
+    public class Upload {
+        private final String id;
+        private final String filename;
+        private final long size;
+        private final Path file;
+        private final Path resultFile;
+        private final FileChannel channel;
+
+        // Received byte ranges, start -> end (exclusive), merged as they touch
+        private final TreeMap<Long, Long> received = new TreeMap<>();
+        private long contiguous;
+
+        private final Object compressLock = new Object();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final GZIPOutputStream gzip;
+        private volatile long compressedUpTo;
+        private long compressNanos;
+        private volatile String failure;
+        private volatile boolean closed;
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        Upload(String id, String filename, long size, Path file, Path resultFile) throws IOException {
+            this.id = id;
+            this.filename = filename;
+            this.size = size;
+            this.file = file;
+            this.resultFile = resultFile;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.gzip = new GZIPOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(resultFile), BUFFER_SIZE), BUFFER_SIZE);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return bytes received without gaps from the start of the file
+         */
+        public synchronized long getOffset() {
+            return contiguous;
+        }
+
+        /**
+         * Writes a chunk at the given offset.
+         * Chunks may arrive out of order or be resent; only the gap-free prefix is compressed.
+         * That prefix may already be compressed, so chunks may not start inside it.
+         *
+         * @param offset Position of the first byte of the chunk
+         * @param body Chunk data
+         * @return the contiguous offset after this chunk
+         * @throws IllegalArgumentException if the chunk lies outside the declared size
+         * @throws IllegalStateException if the chunk starts below the contiguous offset
+         */
+        public long write(long offset, InputStream body) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Upload is already finished");
+            }
+            if (offset < 0 || offset > size) {
+                throw new IllegalArgumentException("Offset " + offset + " is outside the upload");
+            }
+            long resumeAt = getOffset();
+            if (offset < resumeAt) {
+                throw new IllegalStateException("Bytes before offset " + resumeAt
+                    + " were already received; resume from there");
+            }
+            lastActivity = System.currentTimeMillis();
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = offset;
+            int n;
+            while ((n = body.read(buffer)) != -1) {
+                if (position + n > size) {
+                    markReceived(offset, position);
+                    throw new IllegalArgumentException("Chunk extends past the declared size of " + size + " bytes");
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+            }
+            long offsetAfter = markReceived(offset, position);
+            scheduleCompression();
+            return offsetAfter;
+        }
+
+        private synchronized long markReceived(long start, long end) {
+            if (end <= start) {
+                return contiguous;
+            }
+            // Merge with any overlapping or adjacent ranges
+            Map.Entry<Long, Long> before = received.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            Map.Entry<Long, Long> after;
+            while ((after = received.ceilingEntry(start)) != null && after.getKey() <= end) {
+                end = Math.max(end, after.getValue());
+                received.remove(after.getKey());
+            }
+            received.put(start, end);
+
+            Long prefixEnd = received.get(0L);
+            contiguous = prefixEnd != null ? prefixEnd : 0;
+            return contiguous;
+        }
+
+        private void scheduleCompression() {
+            if (scheduled.compareAndSet(false, true)) {
+                compressors.execute(() -> {
+                    scheduled.set(false);
+                    try {
+                        compressAvailable();
+                    } catch (IOException e) {
+                        failure = "Error: " + e.getMessage();
+                    }
+                });
+            }
+        }
+
+        // Feeds everything up to the contiguous offset into the gzip stream
+        private void compressAvailable() throws IOException {
+            synchronized (compressLock) {
+                if (closed) {
+                    return;
+                }
+                long target = getOffset();
+                long start = System.nanoTime();
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (compressedUpTo < target) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(BUFFER_SIZE, target - compressedUpTo));
+                    int n = channel.read(buffer, compressedUpTo);
+                    if (n <= 0) {
+                        throw new EOFException("Upload file truncated: " + file);
+                    }
+                    gzip.write(buffer.array(), 0, n);
+                    compressedUpTo += n;
+                }
+                compressNanos += System.nanoTime() - start;
+            }
+        }
+
+        ResultStore.StoredResult finish(ResultStore resultStore) throws IOException {
+            if (getOffset() < size) {
+                throw new IllegalStateException("Upload is incomplete: " + getOffset() + " of " + size + " bytes received");
+            }
+            if (failure != null) {
+                throw new IllegalStateException(failure);
+            }
+            synchronized (compressLock) {
+                if (closed) {
+                    throw new IllegalStateException("Upload is already finished");
+                }
+                compressAvailable();
+                gzip.close();
+                closed = true;
+                channel.close();
+                Files.deleteIfExists(file);
+            }
+            long compressedSize = Files.size(resultFile);
+            Metrics.recordCompression(size, compressedSize, compressNanos);
+            return resultStore.storeFile(resultFile, filename + ".gz", "application/gzip");
+        }
+
+        void discard() {
+            synchronized (compressLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    channel.close();
+                    gzip.close();
+                    Files.deleteIfExists(file);
+                    Files.deleteIfExists(resultFile);
+                } catch (IOException e) {
+                    System.err.println("Could not discard upload " + id + ": " + e.getMessage());
+                }
+            }
+        }
+
+        public String toJson() {
+            long offset = getOffset();
+            StringBuilder json = new StringBuilder(192);
+            json.append("{\"id\":\"").append(id).append('"');
+            json.append(",\"filename\":\"").append(escape(filename)).append('"');
+            json.append(",\"size\":").append(size);
+            json.append(",\"offset\":").append(offset);
+            json.append(",\"compressedThrough\":").append(compressedUpTo);
+            if (failure != null) {
+                json.append(",\"error\":\"").append(escape(failure)).append('"');
+            }
+            json.append('}');
+            return json.toString();
+        }
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -12,7 +12,7 @@ public class WebServer {
     private static final int PORT = 8080;
     
     public static void main(String[] args) throws IOException {
-        HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
+        HttpServer server = NioHttpServer.forEngine(ServerConfig.ENGINE, new InetSocketAddress(PORT));
         
         server.createContext("/", new HomeHandler());
         server.setExecutor(null);
@@ -0,0 +1,42 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Implemented by response streams that can send file regions without copying them
+ * through the heap, e.g. with FileChannel.transferTo straight into a socket.
+ * Wrapping streams implement it too and forward to the stream they wrap.
+ */
+public interface ZeroCopyOutput {
+
+    /**
+     * Sends a region of a file as response body bytes
+     *
+     * @param source File to read from
+     * @param position Offset of the first byte to send
+     * @param count Number of bytes to send
+     * @return the number of bytes sent, always count
+     * @throws EOFException if the file is shorter than position + count
+     */
+    long transferFrom(FileChannel source, long position, long count) throws IOException;
+
+    /**
+     * Sends a file region to any OutputStream, using zero-copy when the stream supports it
+     */
+    static long transfer(FileChannel source, long position, long count, OutputStream out) throws IOException {
+        if (out instanceof ZeroCopyOutput) {
+            return ((ZeroCopyOutput) out).transferFrom(source, position, count);
+        }
+        WritableByteChannel target = Channels.newChannel(out);
+        long end = position + count;
+        while (position < end) {
+            long sent = source.transferTo(position, end - position, target);
+            if (sent <= 0) {
+                throw new EOFException("File truncated at byte " + position);
+            }
+            position += sent;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ZIP as a single-file codec: compression writes one entry named after the original file,
+ * decompression yields the first file entry. Archives with several files are still extracted
+ * as a whole by FileCompressor.decompressZip.
+ */
+public class ZipCodec implements Codec {
+    private final CompressionSettings settings;
+
+    public ZipCodec() {
+        this(CompressionSettings.DEFAULT);
+    }
+
+    private ZipCodec(CompressionSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public String getName() {
+        return "zip";
+    }
+
+    @Override
+    public String getExtension() {
+        return ".zip";
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/zip";
+    }
+
+    @Override
+    public boolean matches(byte[] header, int length) {
+        return length >= 4 && header[0] == 'P' && header[1] == 'K' && header[2] == 3 && header[3] == 4;
+    }
+
+    @Override
+    public boolean storesFilename() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSettings() {
+        return true;
+    }
+
+    @Override
+    public Codec configure(CompressionSettings settings) {
+        return new ZipCodec(settings);
+    }
+
+    @Override
+    public OutputStream compressor(OutputStream out, String filename) throws IOException {
+        ZipOutputStream zos = new Output(out, settings);
+        zos.putNextEntry(new ZipEntry(filename != null ? filename : "data"));
+        // Closing finishes the entry and the central directory
+        return zos;
+    }
+
+    @Override
+    public OutputStream storingCompressor(OutputStream out, String filename, long size, long crc)
+            throws IOException {
+        if (size < 0 || crc < 0) {
+            return Codec.super.storingCompressor(out, filename, size, crc);
+        }
+        // A STORED entry records size and CRC in its local header, before the data
+        ZipEntry entry = new ZipEntry(filename != null ? filename : "data");
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+        ZipOutputStream zos = new ZipOutputStream(out);
+        zos.putNextEntry(entry);
+        return zos;
+    }
+
+    @Override
+    public boolean needsChecksumToStore() {
+        return true;
+    }
+
+    @Override
+    public InputStream decompressor(InputStream in) throws IOException {
+        ZipInputStream zis = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            if (!entry.isDirectory()) {
+                return zis;
+            }
+        }
+        throw new ZipException("ZIP data contains no files");
+    }
+
+    /**
+     * ZipOutputStream whose Deflater uses the given level and strategy
+     */
+    private static class Output extends ZipOutputStream {
+        Output(OutputStream out, CompressionSettings settings) {
+            super(out);
+            setLevel(settings.getLevel());
+            def.setStrategy(settings.getStrategy());
+        }
+    }
+}